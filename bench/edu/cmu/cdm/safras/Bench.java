@@ -0,0 +1,98 @@
+package edu.cmu.cdm.safras;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * Minimal benchmark harness.
+ *
+ * Runs warmup and then measurement iterations of a fixed duration, calling the operation as often as it
+ * can, and reports throughput, bytes allocated per operation by the benchmark thread, and the number of
+ * collections and time spent in the collector during measurement.
+ */
+class Bench {
+	/** Keeps results alive so the JIT cannot remove the work */
+	static volatile int sink;
+
+	private final int warmup;
+	private final int iterations;
+	private final long iterationMillis;
+
+	/**
+	 * @param warmup The number of warmup iterations
+	 * @param iterations The number of measured iterations
+	 * @param iterationMillis The length of an iteration
+	 */
+	Bench(int warmup, int iterations, long iterationMillis) {
+		this.warmup = warmup;
+		this.iterations = iterations;
+		this.iterationMillis = iterationMillis;
+	}
+
+	/**
+	 * Benchmark an operation and print the result
+	 * @param name The name of the benchmark
+	 * @param op The operation
+	 */
+	void run(String name, Supplier<Object> op) {
+		for (int i = 0; i < warmup; i++)
+			iteration(op);
+
+		double[] throughput = new double[iterations];
+		long ops = 0, allocated = 0, gcCount = gcCount(), gcTime = gcTime();
+		for (int i = 0; i < iterations; i++) {
+			long before = allocatedBytes(), st = System.nanoTime();
+			long n = iteration(op);
+			throughput[i] = n / ((System.nanoTime() - st) / 1e9);
+			allocated += allocatedBytes() - before;
+			ops += n;
+		}
+		gcCount = gcCount() - gcCount;
+		gcTime = gcTime() - gcTime;
+
+		double mean = 0, var = 0;
+		for (double t : throughput) mean += t / iterations;
+		for (double t : throughput) var += (t - mean) * (t - mean) / Math.max(1, iterations - 1);
+
+		System.out.printf("%-40s %14.2f ops/s +- %10.2f %14.0f B/op %6d gcs %8d ms gc%n",
+				name, mean, Math.sqrt(var), allocated < 0 ? Double.NaN : (double) allocated / ops, gcCount, gcTime);
+	}
+
+	/**
+	 * Run one iteration
+	 * @return The number of operations completed
+	 */
+	private long iteration(Supplier<Object> op) {
+		long end = System.nanoTime() + iterationMillis * 1000000L, n = 0;
+		do {
+			sink += System.identityHashCode(op.get());
+			n++;
+		} while (System.nanoTime() < end);
+		return n;
+	}
+
+	/**
+	 * @return The bytes allocated by this thread so far, or a negative number if the JVM cannot tell
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	private static long gcCount() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			n += Math.max(0, gc.getCollectionCount());
+		return n;
+	}
+
+	private static long gcTime() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			n += Math.max(0, gc.getCollectionTime());
+		return n;
+	}
+}
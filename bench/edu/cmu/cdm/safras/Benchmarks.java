@@ -0,0 +1,244 @@
+package edu.cmu.cdm.safras;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Determinization benchmarks over random Tabakov-Vardi automata.
+ *
+ * transition/* measure single Safra transitions of each transformer over a sample of reachable trees,
+ * where the small ones only run for automata of at most 64 states.
+ * determinize/* measure a whole run, exploration and Rabin pairs, from a cold image cache. The output
+ * sizes of classic and compact (Piterman) trees are printed first.
+ * lazy/walk measures a random walk on the lazily determinized automata, which only builds what it visits.
+ * arena/* measure monopass transitions and determinizations with the node arena at its default capacity
+ * and turned off, to show what pooling saves in allocation and GC.
+ * label/* compare BitSet with the scalar and vector operations of Label on the bulk operations of a
+ * transition, for labels of --label-states states, including the union over successors of an automata
+ * that wide. The vector ones go through Label, so they only run when it was built with the vector source
+ * root and the JVM runs with --add-modules jdk.incubator.vector.
+ *
+ * Options are --states=N, --alphabet=N, --density=R, --acceptance=F, --seed=N, --warmup=N,
+ * --iterations=N, --millis=N, the length of an iteration, and --label-states=N.
+ */
+public class Benchmarks {
+	/** The number of trees transitions are sampled from */
+	private static final int SAMPLE = 1000;
+	/** The length of lazy random walks */
+	private static final int WALK = 1000;
+
+	public static void main(String[] args) {
+		int states = 8, alphabet = 2, seed = 1, warmup = 3, iterations = 5, labelStates = 2048;
+		double density = 1.5, acceptance = 0.5;
+		long millis = 1000;
+		for (String arg : args) {
+			String value = arg.substring(arg.indexOf('=') + 1);
+			if (arg.startsWith("--states=")) states = Integer.parseInt(value);
+			else if (arg.startsWith("--alphabet=")) alphabet = Integer.parseInt(value);
+			else if (arg.startsWith("--density=")) density = Double.parseDouble(value);
+			else if (arg.startsWith("--acceptance=")) acceptance = Double.parseDouble(value);
+			else if (arg.startsWith("--seed=")) seed = Integer.parseInt(value);
+			else if (arg.startsWith("--warmup=")) warmup = Integer.parseInt(value);
+			else if (arg.startsWith("--iterations=")) iterations = Integer.parseInt(value);
+			else if (arg.startsWith("--millis=")) millis = Long.parseLong(value);
+			else if (arg.startsWith("--label-states=")) labelStates = Integer.parseInt(value);
+			else throw new IllegalArgumentException("Unknown option " + arg);
+		}
+
+		Automata am = RandomAutomata.generate(states, alphabet, density, acceptance, seed);
+		SafraTree initial = Main.initialTree(am);
+		Bench bench = new Bench(warmup, iterations, millis);
+
+		//The trees transitions are benchmarked on
+		List<SafraTree> sample = new SequentialExplorer(new MonopassTransformer()).explore(am, initial).getStates();
+		int trees = sample.size();
+		int compact = new SequentialExplorer(new PitermanTransformer()).explore(am, PitermanTransformer.initialTree(am)).size();
+		sample = sample.subList(0, Math.min(SAMPLE, sample.size()));
+		System.out.println("automata: " + states + " states, " + alphabet + " letters, density " + density
+				+ ", acceptance " + acceptance + ", seed " + seed + ", " + sample.size() + " sampled trees");
+		System.out.println("output: " + trees + " Safra trees, " + compact + " compact trees");
+
+		transitions(bench, "transition/monopass", am, sample, new MonopassTransformer());
+		transitions(bench, "transition/scratch", am, sample, new ScratchTransformer());
+		if (SmallTransformer.supports(am))
+			transitions(bench, "transition/small", am, sample, new SmallTransformer());
+		transitions(bench, "transition/wide", am, sample, new WideTransformer());
+		transitions(bench, "transition/multipass", am, sample, new MultipassTransformer());
+
+		determinize(bench, "determinize/sequential", am, initial, new SequentialExplorer(new MonopassTransformer()));
+		determinize(bench, "determinize/scratch", am, initial, new SequentialExplorer(new ScratchTransformer()));
+		if (SmallTransformer.supports(am))
+			determinize(bench, "determinize/small", am, initial, new SequentialExplorer(new SmallTransformer()));
+		parity(bench, "determinize/piterman", am);
+		determinize(bench, "determinize/parallel", am, initial,
+				new ParallelExplorer(new MonopassTransformer(), Runtime.getRuntime().availableProcessors()));
+
+		walk(bench, "lazy/walk", am, seed);
+
+		arenas(bench, am, initial, sample);
+
+		labels(bench, labelStates, seed);
+	}
+
+	/**
+	 * Benchmark the bulk label operations of a Safra transition on wide labels: BitSet, the scalar loops of
+	 * Label and, when the JVM runs with --add-modules jdk.incubator.vector, its Vector API operations
+	 */
+	private static void labels(Bench bench, int nStates, int seed) {
+		Random random = new Random(seed);
+		BitSet a = new BitSet(nStates), b = new BitSet(nStates), out = new BitSet(nStates);
+		for (int i = 0; i < nStates; i++) {
+			if (random.nextBoolean()) a.set(i);
+			if (random.nextInt(4) == 0) b.set(i);
+		}
+		//Disjoint from a, so testing them scans every word
+		BitSet notA = (BitSet) a.clone();
+		notA.flip(0, nStates);
+		Label la = Label.of(nStates, a), lb = Label.of(nStates, b), lNotA = Label.of(nStates, notA),
+				lout = new Label(nStates);
+		System.out.println("labels: " + nStates + " states, " + Label.implementation());
+
+		bench.run("label/or/bitset", () -> {
+			out.clear();
+			out.or(a);
+			out.or(b);
+			return out;
+		});
+		bench.run("label/and-not/bitset", () -> {
+			out.clear();
+			out.or(a);
+			out.and(b);
+			out.andNot(a);
+			return out.isEmpty();
+		});
+		bench.run("label/intersects/bitset", () -> a.intersects(b) && !a.intersects(notA));
+		bench.run("label/cardinality/bitset", () -> a.cardinality() + b.cardinality());
+
+		//The scalar loops directly, and the Vector API through Label when it uses it
+		LabelOps loops = new LabelLoops();
+		bench.run("label/or/scalar", () -> {
+			lout.clear();
+			loops.or(lout.words, la.words);
+			loops.or(lout.words, lb.words);
+			return lout;
+		});
+		bench.run("label/and-not/scalar", () -> {
+			lout.copy(la);
+			loops.and(lout.words, lb.words);
+			loops.andNot(lout.words, la.words);
+			return loops.isEmpty(lout.words);
+		});
+		bench.run("label/intersects/scalar",
+				() -> loops.intersects(la.words, lb.words) && !loops.intersects(la.words, lNotA.words));
+		if (Label.VECTOR) {
+			bench.run("label/or/vector", () -> {
+				lout.clear();
+				lout.or(la);
+				lout.or(lb);
+				return lout;
+			});
+			bench.run("label/and-not/vector", () -> {
+				lout.copy(la);
+				lout.and(lb);
+				lout.andNot(la);
+				return lout.isEmpty();
+			});
+			bench.run("label/intersects/vector", () -> la.intersects(lb) && !la.intersects(lNotA));
+		}
+		bench.run("label/cardinality/label", () -> la.cardinality() + lb.cardinality());
+
+		//The union over successors, from the chunk tables of a wide automata
+		Automata wide = RandomAutomata.generate(nStates, 1, 1.5, 0.5, seed);
+		ImageComputer images = new ImageComputer(wide, 0, ImageComputer.DEFAULT_TABLE_BUDGET);
+		bench.run("label/image/bitset", () -> {
+			out.clear();
+			images.image(1, a, out);
+			return out;
+		});
+		bench.run("label/image/" + (Label.VECTOR ? "vector" : "scalar"), () -> {
+			lout.clear();
+			images.image(1, a, lout);
+			return lout;
+		});
+	}
+
+	/**
+	 * Benchmark single transitions, cycling through the sample and the alphabet
+	 */
+	private static void transitions(Bench bench, String name, Automata am, List<SafraTree> sample,
+									SafraTransition tform) {
+		int[] next = {0};
+		bench.run(name, () -> {
+			int i = next[0]++;
+			if (next[0] == sample.size() * am.alphsize) next[0] = 0;
+			SafraTree out = tform.transition(am, sample.get(i / am.alphsize), i % am.alphsize + 1);
+			NodeArena.current().reset();
+			return out;
+		});
+	}
+
+	/**
+	 * Benchmark monopass with pooling on and off. Arenas are per thread and take their capacity when they
+	 * are created, so each setting runs on a fresh thread, which is also the thread B/op is measured on.
+	 */
+	private static void arenas(Bench bench, Automata am, SafraTree initial, List<SafraTree> sample) {
+		for (int capacity : new int[]{NodeArena.DEFAULT_CAPACITY, 0}) {
+			String suffix = capacity == 0 ? "/off" : "/on";
+			NodeArena.setCapacity(capacity);
+			Thread thread = new Thread(() -> {
+				transitions(bench, "arena/transition" + suffix, am, sample, new MonopassTransformer());
+				determinize(bench, "arena/determinize" + suffix, am, initial, new SequentialExplorer(new MonopassTransformer()));
+			});
+			thread.start();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				NodeArena.setCapacity(NodeArena.DEFAULT_CAPACITY);
+			}
+		}
+	}
+
+	/**
+	 * Benchmark random walks of WALK letters on a fresh lazy automata, from a cold image cache
+	 */
+	private static void walk(Bench bench, String name, Automata am, long seed) {
+		Random random = new Random(seed);
+		bench.run(name, () -> {
+			am.images = new ImageComputer(am);
+			LazyRabinAutomaton lazy = new LazyRabinAutomaton(am);
+			SafraTree state = lazy.initial();
+			for (int i = 0; i < WALK; i++)
+				state = lazy.successor(state, random.nextInt(am.alphsize) + 1);
+			return state;
+		});
+	}
+
+	/**
+	 * Benchmark complete determinizations
+	 */
+	private static void determinize(Bench bench, String name, Automata am, SafraTree initial, Explorer explorer) {
+		bench.run(name, () -> {
+			am.images = new ImageComputer(am);
+			RabinAutomaton automaton = explorer.explore(am, initial);
+			return new Marker().pairs(automaton.getStates(), am.nStates);
+		});
+	}
+
+	/**
+	 * Benchmark a whole run with compact trees, exploration and edge priorities
+	 */
+	private static void parity(Bench bench, String name, Automata am) {
+		PitermanTransformer tform = new PitermanTransformer();
+		Explorer explorer = new SequentialExplorer(tform);
+		SafraTree initial = PitermanTransformer.initialTree(am);
+		bench.run(name, () -> {
+			am.images = new ImageComputer(am);
+			RabinAutomaton automaton = explorer.explore(am, initial);
+			return tform.priorities(automaton, am);
+		});
+	}
+}
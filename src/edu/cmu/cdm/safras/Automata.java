@@ -19,12 +19,20 @@ public class Automata {
 	/** The transition system for the automata */
 	TransitionSystem ts;
 
+	/** Memoized images of labels under the transition system */
+	ImageComputer images;
+
 	public Automata(int nStates, BitSet intial,
 					BitSet finals, int alphsize, List<TransitionSystem.Transition> transitions) {
+		this(nStates, intial, finals, alphsize, new TransitionSystem(nStates, alphsize, transitions));
+	}
+
+	public Automata(int nStates, BitSet intial, BitSet finals, int alphsize, TransitionSystem ts) {
 		this.nStates = nStates;
 		this.initial = intial;
 		this.finals = finals;
 		this.alphsize = alphsize;
-		this.ts = new TransitionSystem(transitions);
+		this.ts = ts;
+		this.images = new ImageComputer(this);
 	}
 }
@@ -0,0 +1,212 @@
+package edu.cmu.cdm.safras;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Streaming parser for the BUECHI text format.
+ *
+ * The file is read through a channel into a fixed buffer, and numbers are parsed straight from the bytes
+ * into primitive arrays, so no line strings are ever built. Files in the binary format written by
+ * BinaryFormat are recognized by their magic number and loaded with it instead.
+ *
+ * The text format is a line reading BUECHI, then lines holding the number of states, the alphabet size
+ * and the number of transitions, then one line per transition (the first, third and fifth fields being
+ * the source state, the letter and the target state), then a line of initial states and a line of final
+ * states. States are numbered from 1. Lines starting with # are comments.
+ */
+public class AutomataReader {
+	/** The size of the read buffer */
+	private static final int BUFFER = 1 << 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+	/** The current line number, for error messages */
+	private int line = 1;
+
+	private AutomataReader(FileChannel channel) {
+		this.channel = channel;
+		buf.limit(0);
+	}
+
+	/**
+	 * Read an automata in either the text or the binary format
+	 * @param file The file to read
+	 * @return The automata
+	 * @throws IOException If the file cannot be read
+	 */
+	public static Automata read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (BinaryFormat.isBinary(channel))
+				return BinaryFormat.read(channel);
+			return new AutomataReader(channel).parse();
+		}
+	}
+
+	/**
+	 * Parse the text format
+	 * @return The automata
+	 * @throws IOException If the file cannot be read
+	 */
+	private Automata parse() throws IOException {
+		//File start
+		while (!header()) {
+			if (peek() < 0)
+				throw new IllegalArgumentException("No BUECHI header found");
+		}
+
+		int nstates = intLine();
+		int alphsize = intLine();
+		int ntrans = intLine();
+
+		int[] from = new int[ntrans], to = new int[ntrans], under = new int[ntrans];
+		for (int i = 0; i < ntrans; i++) {
+			skipComments();
+			from[i] = number() - 1;
+			skipField();
+			under[i] = number();
+			skipField();
+			to[i] = number() - 1;
+			endLine();
+		}
+
+		BitSet initials = statesLine(), finals = statesLine();
+		return new Automata(nstates, initials, finals, alphsize,
+				new TransitionSystem(nstates, alphsize, from, to, under, ntrans));
+	}
+
+	/**
+	 * Check if the current line is the BUECHI header, consuming it either way
+	 * @return True iff it was
+	 * @throws IOException If the file cannot be read
+	 */
+	private boolean header() throws IOException {
+		byte[] expected = {'B', 'U', 'E', 'C', 'H', 'I'};
+		boolean match = true;
+		for (byte b : expected) {
+			if (peek() != b) {
+				match = false;
+				break;
+			}
+			next();
+		}
+		if (match && peek() == '\r') next();
+		match &= peek() == '\n' || peek() < 0;
+		endLine();
+		return match;
+	}
+
+	/**
+	 * Read a line holding a single number
+	 * @return The number
+	 * @throws IOException If the file cannot be read
+	 */
+	private int intLine() throws IOException {
+		skipComments();
+		int n = number();
+		endLine();
+		return n;
+	}
+
+	/**
+	 * Read a line of space separated states. A missing line is an empty set.
+	 * @return The states, numbered from 0
+	 * @throws IOException If the file cannot be read
+	 */
+	private BitSet statesLine() throws IOException {
+		BitSet states = new BitSet();
+		skipComments();
+		while (true) {
+			skipSpaces();
+			int c = peek();
+			if (c < 0 || c == '\n' || c == '\r') break;
+			states.set(number() - 1);
+		}
+		endLine();
+		return states;
+	}
+
+	/**
+	 * Parse a non-negative decimal number, skipping leading spaces
+	 * @return The number
+	 * @throws IOException If the file cannot be read
+	 */
+	private int number() throws IOException {
+		skipSpaces();
+		int c = peek();
+		if (c < '0' || c > '9')
+			throw new IllegalArgumentException("Expected a number on line " + line);
+		int n = 0;
+		while ((c = peek()) >= '0' && c <= '9') {
+			n = n * 10 + (c - '0');
+			next();
+		}
+		return n;
+	}
+
+	/**
+	 * Skip a field that is not used, such as the arrows of a transition line
+	 * @throws IOException If the file cannot be read
+	 */
+	private void skipField() throws IOException {
+		skipSpaces();
+		for (int c; (c = peek()) >= 0 && c != ' ' && c != '\t' && c != '\r' && c != '\n'; )
+			next();
+	}
+
+	private void skipSpaces() throws IOException {
+		for (int c; (c = peek()) == ' ' || c == '\t'; )
+			next();
+	}
+
+	/**
+	 * Skip comment lines
+	 * @throws IOException If the file cannot be read
+	 */
+	private void skipComments() throws IOException {
+		while (peek() == '#')
+			endLine();
+	}
+
+	/**
+	 * Skip past the end of the current line
+	 * @throws IOException If the file cannot be read
+	 */
+	private void endLine() throws IOException {
+		for (int c; (c = peek()) >= 0; ) {
+			next();
+			if (c == '\n') {
+				line++;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return The next byte without consuming it, or -1 at the end of the file
+	 * @throws IOException If the file cannot be read
+	 */
+	private int peek() throws IOException {
+		if (!buf.hasRemaining()) {
+			buf.clear();
+			int read;
+			do {
+				read = channel.read(buf);
+			} while (read == 0);
+			buf.flip();
+			if (read < 0) return -1;
+		}
+		return buf.get(buf.position()) & 0xFF;
+	}
+
+	/**
+	 * Consume the byte returned by peek
+	 */
+	private void next() {
+		buf.position(buf.position() + 1);
+	}
+}
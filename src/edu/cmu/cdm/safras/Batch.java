@@ -0,0 +1,142 @@
+package edu.cmu.cdm.safras;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Determinizes many automata files in one JVM, so JIT warmup is paid once for the whole batch.
+ *
+ * The input is either a directory, whose regular files are taken in name order, or a manifest listing
+ * one file per line, relative to the manifest's directory, where blank lines and lines starting with #
+ * are skipped. Files are determinized concurrently on a shared pool, each by a sequential explorer, and
+ * one summary line per file is printed in input order as soon as it and every file before it are done.
+ */
+public class Batch {
+	private final Options options;
+
+	/**
+	 * Create a batch run
+	 * @param options The options applied to every file
+	 */
+	public Batch(Options options) {
+		this.options = options;
+	}
+
+	/**
+	 * List the files of a batch
+	 * @param input A directory or manifest
+	 * @return The automata files, in input order
+	 * @throws IOException If the input cannot be listed
+	 */
+	static List<Path> files(Path input) throws IOException {
+		if (Files.isDirectory(input)) {
+			try (Stream<Path> files = Files.list(input)) {
+				return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+			}
+		}
+		Path dir = input.toAbsolutePath().getParent();
+		List<Path> files = new ArrayList<>();
+		for (String line : Files.readAllLines(input, StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			files.add(dir.resolve(line));
+		}
+		return files;
+	}
+
+	/**
+	 * Determinize every file of a batch
+	 * @param input A directory or manifest
+	 * @param out The stream the summaries are printed to
+	 * @return The number of files that failed
+	 * @throws IOException If the input cannot be listed
+	 */
+	public int run(Path input, PrintStream out) throws IOException {
+		long st = System.nanoTime();
+		List<Path> files = files(input);
+		ExecutorService pool = Executors.newFixedThreadPool(options.batchThreads);
+		int failed = 0;
+		try {
+			List<Future<String>> results = new ArrayList<>(files.size());
+			for (Path file : files)
+				results.add(pool.submit(() -> determinize(file)));
+
+			for (int i = 0; i < files.size(); i++) {
+				String summary;
+				try {
+					summary = results.get(i).get();
+				} catch (ExecutionException e) {
+					failed++;
+					summary = "error: " + e.getCause();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for " + files.get(i), e);
+				}
+				out.println(files.get(i) + ": " + summary);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		out.println("batch: " + files.size() + " files " + failed + " failed threads: " + options.batchThreads
+				+ " time: " + (System.nanoTime() - st)/1000000000.0f);
+		return failed;
+	}
+
+	/**
+	 * Determinize one file
+	 * @param file The automata file
+	 * @return Its summary
+	 * @throws IOException If the file cannot be read
+	 */
+	private String determinize(Path file) throws IOException {
+		long st = System.nanoTime();
+		Automata source = AutomataReader.read(file);
+		StringBuilder summary = new StringBuilder();
+
+		if (options.trim || options.simulation || options.prune) {
+			int states = source.nStates;
+			source = new Reducer(options.trim, options.simulation, options.prune).reduce(source);
+			summary.append("reduced: ").append(states).append(" -> ").append(source.nStates).append(" ");
+		}
+		source.images = new ImageComputer(source, options.imageCache, options.tableBudget);
+		SafraTransition tform = Main.transformer(options.transformer, source);
+		SafraTree tree = tform instanceof PitermanTransformer ? PitermanTransformer.initialTree(source) : Main.initialTree(source);
+
+		if (options.emptiness) {
+			EmptinessChecker.Result result = new EmptinessChecker(tform).check(source, tree);
+			return summary.append("time: ").append((System.nanoTime() - st)/1000000000.0f).append(" ")
+					.append(result).toString();
+		}
+
+		Explorer explorer = new SequentialExplorer(tform);
+		explorer.setLetterClasses(options.letterClasses);
+		RabinAutomaton automaton = explorer.explore(source, tree);
+		if (tform instanceof PitermanTransformer) {
+			int[] priorities = ((PitermanTransformer) tform).priorities(automaton, source);
+			return summary.append("states: ").append(automaton.size()).append(" priorities: ")
+					.append(Arrays.stream(priorities).distinct().count()).append(" time: ")
+					.append((System.nanoTime() - st)/1000000000.0f).toString();
+		}
+		List<Pair<BitSet, BitSet>> pairs = new Marker().pairs(automaton.getStates(), source.nStates);
+		summary.append("states: ").append(automaton.size()).append(" pairs: ").append(pairs.size());
+
+		if (options.minimize) {
+			RabinAutomaton minimal = new Minimizer().minimize(automaton, pairs);
+			summary.append(" minimized: ").append(minimal.size());
+		}
+		return summary.append(" time: ").append((System.nanoTime() - st)/1000000000.0f).toString();
+	}
+}
@@ -0,0 +1,127 @@
+package edu.cmu.cdm.safras;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Compact binary format for Buechi automata, for inputs that are loaded many times.
+ *
+ * The file is the magic number SAFB, the format version, the number of states, the alphabet size and the
+ * number of transitions as big endian ints, followed by the source states, target states and letters of
+ * the transitions as three int arrays, and finally the initial and final state sets, each as a word count
+ * followed by the words of the set. States are numbered from 0. Reading maps the file and copies the
+ * arrays in bulk.
+ */
+public class BinaryFormat {
+	/** "SAFB" */
+	static final int MAGIC = 0x53414642;
+	static final int VERSION = 1;
+	/** The number of ints before the transition arrays */
+	private static final int HEADER = 5;
+
+	/**
+	 * Check if a file starts with the binary magic number
+	 * @param channel The file, whose position is left alone
+	 * @return True iff the file is in the binary format
+	 * @throws IOException If the file cannot be read
+	 */
+	static boolean isBinary(FileChannel channel) throws IOException {
+		ByteBuffer magic = ByteBuffer.allocate(4);
+		while (magic.hasRemaining()) {
+			if (channel.read(magic, magic.position()) < 0)
+				return false;
+		}
+		return magic.getInt(0) == MAGIC;
+	}
+
+	/**
+	 * Read an automata in the binary format
+	 * @param channel The file
+	 * @return The automata
+	 * @throws IOException If the file cannot be read
+	 */
+	static Automata read(FileChannel channel) throws IOException {
+		if (channel.size() > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Binary automata larger than 2GB are not supported");
+		ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+		IntBuffer header = buf.asIntBuffer();
+		if (header.get(0) != MAGIC)
+			throw new IllegalArgumentException("Not a binary automata");
+		if (header.get(1) != VERSION)
+			throw new IllegalArgumentException("Unsupported binary automata version " + header.get(1));
+		int nStates = header.get(2), alphsize = header.get(3), ntrans = header.get(4);
+
+		int[] from = new int[ntrans], to = new int[ntrans], under = new int[ntrans];
+		IntBuffer arrays = buf.position(HEADER * 4).asIntBuffer();
+		arrays.get(from).get(to).get(under);
+
+		buf.position((HEADER + 3 * ntrans) * 4);
+		BitSet initial = readSet(buf), finals = readSet(buf);
+		return new Automata(nStates, initial, finals, alphsize,
+				new TransitionSystem(nStates, alphsize, from, to, under, ntrans));
+	}
+
+	private static BitSet readSet(ByteBuffer buf) {
+		long[] words = new long[buf.getInt()];
+		for (int i = 0; i < words.length; i++)
+			words[i] = buf.getLong();
+		return BitSet.valueOf(words);
+	}
+
+	/**
+	 * Write an automata in the binary format
+	 * @param am The automata
+	 * @param file The file to write, which is overwritten
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(Automata am, Path file) throws IOException {
+		int ntrans = am.ts.size();
+		long[] initial = am.initial.toLongArray(), finals = am.finals.toLongArray();
+		ByteBuffer buf = ByteBuffer.allocate((HEADER + 3 * ntrans + 2) * 4 + (initial.length + finals.length) * 8);
+
+		buf.putInt(MAGIC).putInt(VERSION).putInt(am.nStates).putInt(am.alphsize).putInt(ntrans);
+		IntBuffer arrays = buf.asIntBuffer();
+		int[] n = {0};
+		am.ts.forEach((from, to, under) -> {
+			arrays.put(n[0], from);
+			arrays.put(ntrans + n[0], to);
+			arrays.put(2 * ntrans + n[0], under);
+			n[0]++;
+		});
+		buf.position((HEADER + 3 * ntrans) * 4);
+		writeSet(buf, initial);
+		writeSet(buf, finals);
+		buf.flip();
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buf.hasRemaining())
+				channel.write(buf);
+		}
+	}
+
+	private static void writeSet(ByteBuffer buf, long[] words) {
+		buf.putInt(words.length);
+		for (long word : words)
+			buf.putLong(word);
+	}
+
+	/**
+	 * Convert an automata to the binary format
+	 * @param args The input file, in either format, and the output file
+	 * @throws IOException If a file cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2)
+			throw new IllegalArgumentException("Usage: BinaryFormat <input> <output>");
+		Automata am = AutomataReader.read(FileSystems.getDefault().getPath(args[0]));
+		write(am, FileSystems.getDefault().getPath(args[1]));
+	}
+}
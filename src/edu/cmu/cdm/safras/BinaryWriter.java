@@ -0,0 +1,68 @@
+package edu.cmu.cdm.safras;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+/**
+ * Streams a determinized automata in a compact binary format.
+ *
+ * The file starts with the magic number SAFR, the format version, the alphabet size, the acceptance kind
+ * (0 for Rabin pairs, 1 for parity) and the number of pairs or priorities, as big endian ints. Every state
+ * follows as its number and its successor under every letter. With Rabin pairs the state then has its L
+ * and R memberships, as (pairs + 63) / 64 longs each; with parity it has the priority of every transition
+ * as ints. The file ends with -1 and the number of states.
+ */
+public class BinaryWriter extends StreamWriter {
+	/** "SAFR" */
+	static final int MAGIC = 0x53414652;
+	static final int VERSION = 1;
+	static final int RABIN = 0, PARITY = 1;
+
+	/** The number of longs per membership set */
+	private final int words;
+
+	/**
+	 * Open a writer and write the header
+	 * @param file The output file
+	 * @param automata The Buechi automata being determinized
+	 * @param tform The transition function the explorer uses
+	 * @throws IOException If the file cannot be written
+	 */
+	public BinaryWriter(Path file, Automata automata, SafraTransition tform) throws IOException {
+		super(file, automata, tform);
+		this.words = (automata.nStates + 63) >>> 6;
+		room(20).putInt(MAGIC).putInt(VERSION).putInt(automata.alphsize)
+				.putInt(parity != null ? PARITY : RABIN)
+				.putInt(parity != null ? 2 * automata.nStates + 1 : automata.nStates);
+	}
+
+	@Override
+	protected void writeState(int id, int[] succ, int offset, BitSet inL, BitSet inR, int[] priorities)
+			throws IOException {
+		int alph = automata.alphsize;
+		ByteBuffer buf = room(4 + 4 * alph + (priorities != null ? 4 * alph : 16 * words));
+		buf.putInt(id);
+		for (int i = 0; i < alph; i++)
+			buf.putInt(succ[offset + i]);
+		if (priorities != null) {
+			for (int p : priorities)
+				buf.putInt(p);
+		} else {
+			putSet(buf, inL);
+			putSet(buf, inR);
+		}
+	}
+
+	private void putSet(ByteBuffer buf, BitSet set) {
+		long[] w = set.toLongArray();
+		for (int i = 0; i < words; i++)
+			buf.putLong(i < w.length ? w[i] : 0);
+	}
+
+	@Override
+	protected void writeEnd() throws IOException {
+		room(8).putInt(-1).putInt(states);
+	}
+}
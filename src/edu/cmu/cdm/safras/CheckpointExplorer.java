@@ -0,0 +1,214 @@
+package edu.cmu.cdm.safras;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Sequential BFS exploration that logs its progress, so that a killed run can be resumed.
+ *
+ * The log is append-only. After a header naming the automata's size, it holds a record for every new
+ * state, with its encoding, and a record for every expanded state, with its successors, in the order
+ * they happened. A commit record is appended and the file is forced to disk every checkpoint interval.
+ * Resuming replays the log up to the last commit, dropping anything written after it, and carries on
+ * from there: the frontier is every state past the expanded ones. The name sets of the trees are not
+ * logged since they are exactly the names in each tree.
+ */
+public class CheckpointExplorer extends Explorer {
+	/** The default time between checkpoints, in milliseconds */
+	public static final long DEFAULT_INTERVAL = 60_000;
+
+	/** "SAFC" */
+	private static final int MAGIC = 0x53414643;
+	private static final int VERSION = 1;
+
+	private static final byte STATE = 1, EXPANDED = 2, COMMIT = 3;
+
+	/** The log file */
+	private final Path log;
+	/** The time between checkpoints, in milliseconds */
+	private final long interval;
+	/** True iff an existing log should be resumed */
+	private final boolean resume;
+
+	/**
+	 * Create a checkpointing explorer
+	 * @param tform The transition function
+	 * @param log The log file
+	 * @param interval The time between checkpoints, in milliseconds
+	 * @param resume True to resume from the log, false to overwrite it
+	 */
+	public CheckpointExplorer(SafraTransition tform, Path log, long interval, boolean resume) {
+		super(tform);
+		this.log = log;
+		this.interval = interval;
+		this.resume = resume;
+	}
+
+	@Override
+	public RabinAutomaton explore(Automata automata, SafraTree initial) {
+		int alph = automata.alphsize;
+		TreeCodec codec = new TreeCodec();
+		StateRegistry registry = new StateRegistry();
+		int[] succ = new int[1024 * alph];
+		int expanded = 0;
+
+		try {
+			long committed = 0;
+			if (resume && Files.exists(log)) {
+				Replay replay = replay(automata, registry);
+				succ = ensureCapacity(succ, replay.succ.length);
+				System.arraycopy(replay.succ, 0, succ, 0, replay.succ.length);
+				expanded = replay.expanded;
+				committed = replay.committed;
+			}
+
+			try (FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				//Drop whatever was written after the last commit
+				channel.truncate(committed);
+				channel.position(committed);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+
+				if (committed == 0) {
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					out.writeInt(automata.nStates);
+					out.writeInt(alph);
+					registry.register(initial);
+					writeState(out, codec.encode(initial));
+				}
+
+				//States expanded before the resume are reported first
+				for (int id = 0; id < expanded; id++)
+					expanded(id, registry.get(id), succ, id * alph);
+
+				long next = System.currentTimeMillis() + interval;
+				for (int id = expanded; id < registry.size(); id++) {
+					SafraTree[] trees = expand(automata, registry.get(id));
+					succ = ensureCapacity(succ, (id + 1) * alph);
+					for (int i = 0; i < alph; i++) {
+						int tgt = registry.register(trees[i]);
+						successor(trees[i], tgt);
+						if (tgt >= 0)
+							writeState(out, codec.encode(trees[i]));
+						succ[id * alph + i] = tgt < 0 ? -tgt - 1 : tgt;
+					}
+
+					out.writeByte(EXPANDED);
+					for (int i = 0; i < alph; i++)
+						out.writeInt(succ[id * alph + i]);
+					expanded(id, registry.get(id), succ, id * alph);
+					progress(id + 1, registry.size());
+
+					if (System.currentTimeMillis() >= next) {
+						commit(out, channel, registry.size(), id + 1);
+						next = System.currentTimeMillis() + interval;
+					}
+				}
+				commit(out, channel, registry.size(), registry.size());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return new RabinAutomaton(registry.states(), alph, succ);
+	}
+
+	private static void writeState(DataOutputStream out, byte[] enc) throws IOException {
+		out.writeByte(STATE);
+		out.writeInt(enc.length);
+		out.write(enc);
+	}
+
+	/**
+	 * Write a commit record and force everything before it to disk
+	 */
+	private static void commit(DataOutputStream out, FileChannel channel, int states, int expanded) throws IOException {
+		out.writeByte(COMMIT);
+		out.writeInt(states);
+		out.writeInt(expanded);
+		out.flush();
+		channel.force(false);
+	}
+
+	/**
+	 * The state of a run at its last commit
+	 */
+	private static final class Replay {
+		/** The successor table of the expanded states */
+		int[] succ = new int[0];
+		/** The number of expanded states */
+		int expanded;
+		/** The length of the log up to and including the last commit */
+		long committed;
+	}
+
+	/**
+	 * Replay a log up to its last commit
+	 * @param automata The automata, which must have the size recorded in the log
+	 * @param registry The registry the committed states are registered in, in their original order
+	 * @return The successors, the number of expanded states and the length of the committed log
+	 * @throws IOException If the log cannot be read
+	 */
+	private Replay replay(Automata automata, StateRegistry registry) throws IOException {
+		int alph = automata.alphsize;
+		Replay replay = new Replay();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IllegalArgumentException(log + " is not a checkpoint log");
+			if (in.readInt() != automata.nStates || in.readInt() != alph)
+				throw new IllegalArgumentException(log + " was written for a different automata");
+
+			//Everything read since the last commit, kept apart until the next one
+			StateRegistry pending = new StateRegistry();
+			int[] succ = new int[1024 * alph];
+			int expanded = 0, committedExpanded = 0;
+			long pos = 16;
+			try {
+				read:
+				while (true) {
+					byte tag = in.readByte();
+					if (tag == STATE) {
+						byte[] enc = new byte[in.readInt()];
+						in.readFully(enc);
+						pending.register(TreeCodec.decode(enc));
+						pos += 5 + enc.length;
+					} else if (tag == EXPANDED) {
+						succ = ensureCapacity(succ, (expanded + 1) * alph);
+						for (int i = 0; i < alph; i++)
+							succ[expanded * alph + i] = in.readInt();
+						expanded++;
+						pos += 1 + 4 * alph;
+					} else if (tag == COMMIT) {
+						int states = in.readInt(), done = in.readInt();
+						pos += 9;
+						if (done != expanded || states != registry.size() + pending.size())
+							throw new IllegalArgumentException(log + " is corrupt at offset " + pos);
+						for (int i = 0; i < pending.size(); i++)
+							registry.register(pending.get(i));
+						pending = new StateRegistry();
+						committedExpanded = expanded;
+						replay.committed = pos;
+					} else {
+						//Garbage after the last commit, left by a crash
+						break read;
+					}
+				}
+			} catch (EOFException e) {
+				//A torn record after the last commit
+			}
+			replay.expanded = committedExpanded;
+			replay.succ = Arrays.copyOf(succ, committedExpanded * alph);
+		}
+		return replay;
+	}
+}
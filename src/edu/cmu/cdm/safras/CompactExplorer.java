@@ -0,0 +1,58 @@
+package edu.cmu.cdm.safras;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * BFS exploration over a StateStore.
+ *
+ * Explored trees are kept only as their canonical encoding, off-heap, and are decoded when they are
+ * expanded. Since the store numbers states in insertion order, the frontier is simply every state past
+ * the last expanded one, and transitions are kept as a flat table of state numbers.
+ */
+public class CompactExplorer extends Explorer {
+	/** The file backing the store, or null to use direct buffers */
+	private final Path storeFile;
+
+	/**
+	 * Create a compact explorer
+	 * @param tform The transition function
+	 * @param storeFile The file to map the store into, or null to keep it in direct buffers
+	 */
+	public CompactExplorer(SafraTransition tform, Path storeFile) {
+		super(tform);
+		this.storeFile = storeFile;
+	}
+
+	@Override
+	public RabinAutomaton explore(Automata automata, SafraTree initial) {
+		TreeCodec codec = new TreeCodec();
+		int alph = automata.alphsize;
+
+		try (StateStore store = storeFile == null ? new StateStore() : new StateStore(storeFile)) {
+			successor(initial, store.add(codec.encode(initial)));
+
+			//succ[id * alph + i] is the successor of state id under letter i + 1
+			int[] succ = new int[1024 * alph];
+			for (int id = 0; id < store.size(); id++) {
+				SafraTree tree = store.get(id);
+				SafraTree[] out = expand(automata, tree);
+				int row = retain ? id * alph : 0;
+				succ = ensureCapacity(succ, row + alph);
+				for (int i = 0; i < alph; i++) {
+					int tgt = store.add(codec.encode(out[i]));
+					successor(out[i], tgt);
+					succ[row + i] = tgt < 0 ? -tgt - 1 : tgt;
+				}
+				expanded(id, tree, succ, row);
+				progress(id + 1, store.size());
+			}
+
+			//States stay encoded, and are decoded whenever they are read
+			return new RabinAutomaton(store.states(), alph, retain ? succ : new int[0]);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
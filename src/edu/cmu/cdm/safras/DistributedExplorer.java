@@ -0,0 +1,292 @@
+package edu.cmu.cdm.safras;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Level-synchronous BFS spread over worker JVMs on the same machine, so the visited set is not bounded
+ * by one heap.
+ *
+ * Every tree is owned by the worker picked by the hash of its TreeCodec encoding, which keeps the
+ * encodings of the trees it owns and looks up successors in them. The coordinator, running in this JVM,
+ * launches the workers, writes the automata to a temporary file in the binary format for them to load,
+ * and drives the levels over loopback sockets. In a level every worker expands the trees it owns, sends
+ * each successor tagged with its slot, parent * alphabet size + letter, to its owner over a direct
+ * connection, and resolves the candidates it receives: known trees give their number, and new trees keep
+ * the smallest slot they were reached from. The coordinator numbers the new trees of all workers in the
+ * order of that slot, as ExternalExplorer does, so the numbering is the same as the one
+ * SequentialExplorer produces. The run ends after a level without new trees, and the trees of all workers
+ * are then merged into the returned automata.
+ *
+ * The coordinator holds the successor table, and the trees of a level only while they are reported to the
+ * listener. Metrics only get progress, since successors are found by the workers.
+ */
+public class DistributedExplorer extends Explorer {
+	/** The commands sent to workers */
+	static final int SETUP = 1, SEED = 2, LEVEL = 3, NUMBER = 4, TREES = 5, STOP = 6;
+
+	/** The longest wait for the workers to connect, in milliseconds */
+	private static final int CONNECT_TIMEOUT = 60_000;
+
+	/** The number of worker processes */
+	private final int workers;
+	/** Extra arguments for the worker JVMs, such as -Xmx */
+	private final List<String> jvmArgs;
+	/** The image cache capacity and table budget of the workers */
+	private final int imageCache;
+	private final long tableBudget;
+
+	/**
+	 * Create a distributed explorer
+	 * @param tform The transition function. Workers create their own with the class's no-argument constructor.
+	 * @param workers The number of worker processes
+	 * @param jvmArgs Extra arguments for the worker JVMs
+	 * @param imageCache The image cache capacity of the workers
+	 * @param tableBudget The image table budget of the workers, in bytes
+	 */
+	public DistributedExplorer(SafraTransition tform, int workers, List<String> jvmArgs, int imageCache,
+							   long tableBudget) {
+		super(tform);
+		this.workers = workers;
+		this.jvmArgs = jvmArgs;
+		this.imageCache = imageCache;
+		this.tableBudget = tableBudget;
+	}
+
+	/**
+	 * The worker owning a tree
+	 * @param enc The tree's encoding
+	 * @param workers The number of workers
+	 * @return The worker's index
+	 */
+	static int owner(byte[] enc, int workers) {
+		return (int) (((Arrays.hashCode(enc) * 0x9E3779B9) & 0xFFFFFFFFL) * workers >>> 32);
+	}
+
+	/**
+	 * The coordinator's end of a worker
+	 */
+	private static final class Link {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		/** The port the worker accepts its peers on */
+		final int peerPort;
+
+		/** The slots of the new trees of the last level, in the worker's order */
+		int[] fresh;
+
+		Link(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			this.peerPort = in.readInt();
+		}
+	}
+
+	@Override
+	public RabinAutomaton explore(Automata automata, SafraTree initial) {
+		Path file = null;
+		List<Process> processes = new ArrayList<>();
+		List<Link> links = new ArrayList<>();
+		try (ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+			file = Files.createTempFile("safras", ".bin");
+			BinaryFormat.write(automata, file);
+
+			String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+			for (int w = 0; w < workers; w++) {
+				List<String> command = new ArrayList<>();
+				command.add(java);
+				command.addAll(jvmArgs);
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(DistributedWorker.class.getName());
+				command.add(Integer.toString(server.getLocalPort()));
+				processes.add(new ProcessBuilder(command).inheritIO().start());
+			}
+
+			server.setSoTimeout(CONNECT_TIMEOUT);
+			for (int w = 0; w < workers; w++)
+				links.add(new Link(server.accept()));
+			for (int w = 0; w < workers; w++)
+				setup(links, w, file);
+			return explore(automata, initial, links);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			shutdown(links, processes);
+			if (file != null) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException e) {
+					//Left behind
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send a worker what it needs to start: its index, the automata, the transition function and the
+	 * ports of its peers
+	 */
+	private void setup(List<Link> links, int w, Path file) throws IOException {
+		DataOutputStream out = links.get(w).out;
+		out.writeInt(SETUP);
+		out.writeInt(w);
+		out.writeInt(workers);
+		for (Link link : links)
+			out.writeInt(link.peerPort);
+		out.writeUTF(file.toAbsolutePath().toString());
+		out.writeUTF(tform.getClass().getName());
+		out.writeBoolean(letterClasses);
+		out.writeInt(imageCache);
+		out.writeLong(tableBudget);
+		out.writeInt(NodeArena.getCapacity());
+		out.flush();
+	}
+
+	private RabinAutomaton explore(Automata automata, SafraTree initial, List<Link> links) throws IOException {
+		int alph = automata.alphsize;
+
+		byte[] enc = new TreeCodec().encode(initial);
+		Link first = links.get(owner(enc, workers));
+		first.out.writeInt(SEED);
+		first.out.writeInt(enc.length);
+		first.out.write(enc);
+		first.out.flush();
+
+		//succ[slot - base] is the successor of the slot's parent under its letter. Without retention only the
+		//rows of the current level are kept, starting at base.
+		int[] succ = new int[1024 * alph];
+		int size = 1;
+		for (int from = 0; from < size; ) {
+			int to = size;
+			int base = retain ? 0 : from * alph;
+			succ = ensureCapacity(succ, to * alph - base);
+
+			for (Link link : links) {
+				link.out.writeInt(LEVEL);
+				link.out.writeInt(from);
+				link.out.writeInt(to);
+				link.out.flush();
+			}
+
+			//Resolve known trees, and collect the first slot of every new tree of every worker
+			int fresh = 0;
+			for (Link link : links) {
+				DataInputStream in = link.in;
+				for (int n = in.readInt(); n > 0; n--) {
+					int slot = in.readInt();
+					succ[slot - base] = in.readInt();
+				}
+				link.fresh = new int[in.readInt()];
+				for (int i = 0; i < link.fresh.length; i++)
+					link.fresh[i] = in.readInt();
+				fresh += link.fresh.length;
+			}
+
+			//Number the new trees in the order of their first slot. The slots are distinct, so the position
+			//of the tree among the ones of all workers can ride in the low bits.
+			long[] order = new long[fresh];
+			int k = 0;
+			for (Link link : links) {
+				for (int i = 0; i < link.fresh.length; i++, k++)
+					order[k] = (long) link.fresh[i] << 32 | k;
+			}
+			Arrays.sort(order);
+			int[] ids = new int[fresh];
+			for (int i = 0; i < fresh; i++) {
+				ids[(int) order[i]] = size + i;
+				succ[(int) (order[i] >>> 32) - base] = size + i;
+			}
+
+			//Tell the workers the numbers of their new trees, and resolve the other slots that reached them
+			k = 0;
+			for (Link link : links) {
+				link.out.writeInt(NUMBER);
+				link.out.writeInt(link.fresh.length);
+				for (int i = 0; i < link.fresh.length; i++)
+					link.out.writeInt(ids[k++]);
+				link.out.flush();
+			}
+			for (Link link : links) {
+				DataInputStream in = link.in;
+				for (int n = in.readInt(); n > 0; n--) {
+					int slot = in.readInt();
+					succ[slot - base] = in.readInt();
+				}
+			}
+			size += fresh;
+
+			if (listening()) {
+				SafraTree[] trees = trees(links, from, to);
+				for (int id = from; id < to; id++)
+					expanded(id, trees[id - from], succ, id * alph - base);
+			}
+			progress(to, size);
+			from = to;
+		}
+		return new RabinAutomaton(Arrays.asList(trees(links, 0, size)), alph, retain ? succ : new int[0]);
+	}
+
+	/**
+	 * Fetch a range of trees from the workers owning them
+	 * @return The trees, the first being number from
+	 */
+	private static SafraTree[] trees(List<Link> links, int from, int to) throws IOException {
+		for (Link link : links) {
+			link.out.writeInt(TREES);
+			link.out.writeInt(from);
+			link.out.writeInt(to);
+			link.out.flush();
+		}
+		SafraTree[] trees = new SafraTree[to - from];
+		for (Link link : links) {
+			for (int n = link.in.readInt(); n > 0; n--) {
+				int id = link.in.readInt();
+				byte[] enc = new byte[link.in.readInt()];
+				link.in.readFully(enc);
+				trees[id - from] = TreeCodec.decode(enc);
+			}
+		}
+		return trees;
+	}
+
+	/**
+	 * Stop the workers, killing the ones that do not exit
+	 */
+	private static void shutdown(List<Link> links, List<Process> processes) {
+		for (Link link : links) {
+			try {
+				link.out.writeInt(STOP);
+				link.out.flush();
+				link.socket.close();
+			} catch (IOException e) {
+				//Already gone
+			}
+		}
+		for (Process process : processes) {
+			try {
+				if (!process.waitFor(5, TimeUnit.SECONDS))
+					process.destroyForcibly();
+			} catch (InterruptedException e) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package edu.cmu.cdm.safras;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A worker process of DistributedExplorer.
+ *
+ * It owns the trees whose encodings hash to its index, and keeps them as encodings sorted by number. It
+ * sends successors to their owners over one connection per peer, and a thread per incoming connection
+ * gathers the candidates other workers send it, so no two workers can block each other while a level is
+ * exchanged.
+ */
+public class DistributedWorker {
+	/** Ends the candidates of a level on a peer connection */
+	private static final int END = -1;
+
+	/**
+	 * A growable list of ints
+	 */
+	private static final class Ints {
+		int[] values = new int[64];
+		int size = 0;
+
+		void add(int value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+	}
+
+	/**
+	 * The candidates of a level from one worker: successor encodings tagged with their slots
+	 */
+	private static final class Candidates {
+		final Ints slots = new Ints();
+		final List<byte[]> encs = new ArrayList<>();
+		/** Set instead if the connection failed */
+		IOException error;
+
+		void add(int slot, byte[] enc) {
+			slots.add(slot);
+			encs.add(enc);
+		}
+	}
+
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final ServerSocket peers;
+
+	private int index, workers;
+	private Automata automata;
+	/** Used for its expand, so letter classes are shared as in the other explorers */
+	private Explorer expander;
+	private final TreeCodec codec = new TreeCodec();
+
+	/** The connections to the other workers, null at this worker's index */
+	private DataOutputStream[] sends;
+	/** The candidates received from the other workers, one per worker and level */
+	private final BlockingQueue<Candidates> received = new LinkedBlockingQueue<>();
+
+	/** The numbers of the owned trees, ascending, and their encodings */
+	private int[] ids = new int[1024];
+	private byte[][] encs = new byte[1024][];
+	private int count = 0;
+	/** The number of every owned tree by its encoding */
+	private final Map<ByteBuffer, Integer> known = new HashMap<>();
+
+	/** The new trees of the last level, waiting for their numbers */
+	private final List<byte[]> fresh = new ArrayList<>();
+	/** The slots that reached a new tree after its first one, and the tree's index in fresh */
+	private final Ints aliasSlots = new Ints(), aliasTrees = new Ints();
+
+	private DistributedWorker(Socket coordinator) throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(coordinator.getInputStream(), 1 << 16));
+		this.out = new DataOutputStream(new BufferedOutputStream(coordinator.getOutputStream(), 1 << 16));
+		this.peers = new ServerSocket(0, 64, InetAddress.getLoopbackAddress());
+		out.writeInt(peers.getLocalPort());
+		out.flush();
+	}
+
+	/**
+	 * Run a worker until the coordinator stops it
+	 * @param args The coordinator's port on the loopback interface
+	 * @throws Exception If the worker fails, which the coordinator sees as a closed connection
+	 */
+	public static void main(String[] args) throws Exception {
+		try (Socket coordinator = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]))) {
+			new DistributedWorker(coordinator).run();
+		}
+		//The receiving threads are daemons, but make sure nothing lingers
+		System.exit(0);
+	}
+
+	private void run() throws Exception {
+		while (true) {
+			int command;
+			try {
+				command = in.readInt();
+			} catch (EOFException e) {
+				return;
+			}
+			switch (command) {
+				case DistributedExplorer.SETUP:
+					setup();
+					break;
+				case DistributedExplorer.SEED:
+					byte[] enc = new byte[in.readInt()];
+					in.readFully(enc);
+					add(0, enc);
+					break;
+				case DistributedExplorer.LEVEL:
+					level(in.readInt(), in.readInt());
+					break;
+				case DistributedExplorer.NUMBER:
+					number();
+					break;
+				case DistributedExplorer.TREES:
+					trees(in.readInt(), in.readInt());
+					break;
+				case DistributedExplorer.STOP:
+					return;
+				default:
+					throw new IllegalStateException("Unknown command " + command);
+			}
+		}
+	}
+
+	/**
+	 * Load the automata and connect to every other worker
+	 */
+	private void setup() throws Exception {
+		index = in.readInt();
+		workers = in.readInt();
+		int[] ports = new int[workers];
+		for (int w = 0; w < workers; w++)
+			ports[w] = in.readInt();
+		String file = in.readUTF();
+		String transformer = in.readUTF();
+		boolean letterClasses = in.readBoolean();
+		int imageCache = in.readInt();
+		long tableBudget = in.readLong();
+		NodeArena.setCapacity(in.readInt());
+
+		automata = AutomataReader.read(Paths.get(file));
+		automata.images = new ImageComputer(automata, imageCache, tableBudget);
+		expander = new SequentialExplorer((SafraTransition) Class.forName(transformer).getDeclaredConstructor().newInstance());
+		expander.setLetterClasses(letterClasses);
+
+		//Peers accept connections before they are told to, so connecting first cannot block
+		sends = new DataOutputStream[workers];
+		for (int w = 0; w < workers; w++) {
+			if (w == index) continue;
+			Socket socket = new Socket(InetAddress.getLoopbackAddress(), ports[w]);
+			sends[w] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+		}
+		for (int w = 0; w < workers - 1; w++) {
+			Thread receiver = new Thread(receiver(peers.accept()), "receiver-" + w);
+			receiver.setDaemon(true);
+			receiver.start();
+		}
+	}
+
+	/**
+	 * Read the candidates of a peer level after level
+	 */
+	private Runnable receiver(Socket socket) {
+		return () -> {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16))) {
+				while (true) {
+					Candidates batch = new Candidates();
+					for (int slot = in.readInt(); slot != END; slot = in.readInt()) {
+						byte[] enc = new byte[in.readInt()];
+						in.readFully(enc);
+						batch.add(slot, enc);
+					}
+					received.add(batch);
+				}
+			} catch (IOException e) {
+				Candidates failed = new Candidates();
+				failed.error = e;
+				received.add(failed);
+			}
+		};
+	}
+
+	/**
+	 * Add an owned tree, numbered above every other one
+	 */
+	private void add(int id, byte[] enc) {
+		if (count == ids.length) {
+			ids = Arrays.copyOf(ids, count * 2);
+			encs = Arrays.copyOf(encs, count * 2);
+		}
+		ids[count] = id;
+		encs[count++] = enc;
+		known.put(ByteBuffer.wrap(enc), id);
+	}
+
+	/**
+	 * @return The position of the first owned tree numbered id or above
+	 */
+	private int position(int id) {
+		int i = Arrays.binarySearch(ids, 0, count, id);
+		return i < 0 ? -i - 1 : i;
+	}
+
+	/**
+	 * Expand the owned trees of a level, exchange the successors, and report what became of the ones this
+	 * worker owns: the slots of known trees with their numbers, then the first slot of every new tree
+	 */
+	private void level(int from, int to) throws IOException, InterruptedException {
+		int alph = automata.alphsize;
+		Candidates own = new Candidates();
+		for (int j = position(from), end = position(to); j < end; j++) {
+			SafraTree[] succ = expander.expand(automata, TreeCodec.decode(encs[j]));
+			for (int i = 0; i < alph; i++) {
+				byte[] enc = codec.encode(succ[i]);
+				int slot = ids[j] * alph + i;
+				int w = DistributedExplorer.owner(enc, workers);
+				if (w == index) {
+					own.add(slot, enc);
+				} else {
+					sends[w].writeInt(slot);
+					sends[w].writeInt(enc.length);
+					sends[w].write(enc);
+				}
+			}
+		}
+		for (DataOutputStream send : sends) {
+			if (send == null) continue;
+			send.writeInt(END);
+			send.flush();
+		}
+
+		List<Candidates> batches = new ArrayList<>();
+		batches.add(own);
+		for (int w = 0; w < workers - 1; w++) {
+			Candidates batch = received.take();
+			if (batch.error != null)
+				throw batch.error;
+			batches.add(batch);
+		}
+
+		//Known trees are resolved at once, new ones keep their smallest slot
+		Ints knownSlots = new Ints(), knownIds = new Ints(), firstSlots = new Ints();
+		Map<ByteBuffer, Integer> freshIndex = new HashMap<>();
+		for (Candidates batch : batches) {
+			for (int c = 0; c < batch.slots.size; c++) {
+				int slot = batch.slots.values[c];
+				ByteBuffer key = ByteBuffer.wrap(batch.encs.get(c));
+				Integer id = known.get(key);
+				if (id != null) {
+					knownSlots.add(slot);
+					knownIds.add(id);
+					continue;
+				}
+				Integer f = freshIndex.putIfAbsent(key, fresh.size());
+				if (f == null) {
+					fresh.add(batch.encs.get(c));
+					firstSlots.add(slot);
+				} else if (slot < firstSlots.values[f]) {
+					aliasSlots.add(firstSlots.values[f]);
+					aliasTrees.add(f);
+					firstSlots.values[f] = slot;
+				} else {
+					aliasSlots.add(slot);
+					aliasTrees.add(f);
+				}
+			}
+		}
+
+		out.writeInt(knownSlots.size);
+		for (int i = 0; i < knownSlots.size; i++) {
+			out.writeInt(knownSlots.values[i]);
+			out.writeInt(knownIds.values[i]);
+		}
+		out.writeInt(firstSlots.size);
+		for (int i = 0; i < firstSlots.size; i++)
+			out.writeInt(firstSlots.values[i]);
+		out.flush();
+	}
+
+	/**
+	 * Take the numbers of the new trees, and report the numbers of the other slots that reached them
+	 */
+	private void number() throws IOException {
+		int n = in.readInt();
+		int[] numbers = new int[n];
+		for (int i = 0; i < n; i++)
+			numbers[i] = in.readInt();
+
+		//Keep the owned trees sorted by number
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> Integer.compare(numbers[a], numbers[b]));
+		for (int i : order)
+			add(numbers[i], fresh.get(i));
+
+		out.writeInt(aliasSlots.size);
+		for (int i = 0; i < aliasSlots.size; i++) {
+			out.writeInt(aliasSlots.values[i]);
+			out.writeInt(numbers[aliasTrees.values[i]]);
+		}
+		out.flush();
+		fresh.clear();
+		aliasSlots.size = aliasTrees.size = 0;
+	}
+
+	/**
+	 * Send the owned trees numbered from from to to
+	 */
+	private void trees(int from, int to) throws IOException {
+		int start = position(from), end = position(to);
+		out.writeInt(end - start);
+		for (int j = start; j < end; j++) {
+			out.writeInt(ids[j]);
+			out.writeInt(encs[j].length);
+			out.write(encs[j]);
+		}
+		out.flush();
+	}
+}
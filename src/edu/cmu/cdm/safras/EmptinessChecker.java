@@ -0,0 +1,347 @@
+package edu.cmu.cdm.safras;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * On-the-fly emptiness check of the Rabin automata of a Buechi automata.
+ *
+ * The Rabin automata is explored depth first by an iterative Tarjan search, expanding each state when it
+ * is first reached. Whenever an SCC is completed it is checked against the pairs built by Marker: the
+ * language is non-empty iff for some Buechi state i, some cycle avoids L_i and visits R_i. Within an SCC
+ * that is a non-trivial SCC of the subgraph without L_i that holds an R_i state. The search stops at the
+ * first such SCC and returns a lasso word reaching it and going around a cycle through the R_i state.
+ */
+public class EmptinessChecker {
+	/** The transition function used to generate successors */
+	private final SafraTransition tform;
+	private final Marker marker = new Marker();
+
+	/**
+	 * Create a checker
+	 * @param tform The transition function, which must build classic Safra trees
+	 * @throws IllegalArgumentException For PitermanTransformer, whose compact trees have no Rabin pairs
+	 */
+	public EmptinessChecker(SafraTransition tform) {
+		if (tform instanceof PitermanTransformer)
+			throw new IllegalArgumentException("Emptiness is checked with Rabin pairs, which compact trees do not have");
+		this.tform = tform;
+	}
+
+	/**
+	 * The outcome of a check
+	 */
+	public static final class Result {
+		/** True iff the language is empty */
+		public final boolean empty;
+		/** The Buechi state whose pair accepts the lasso, or -1 if empty */
+		public final int pair;
+		/** The letters leading from the initial state to the cycle, empty if the language is empty */
+		public final int[] prefix;
+		/** The letters of the cycle, repeated forever, empty if the language is empty */
+		public final int[] cycle;
+		/** The number of Rabin states explored */
+		public final int explored;
+
+		Result(boolean empty, int pair, int[] prefix, int[] cycle, int explored) {
+			this.empty = empty;
+			this.pair = pair;
+			this.prefix = prefix;
+			this.cycle = cycle;
+			this.explored = explored;
+		}
+
+		@Override
+		public String toString() {
+			if (empty)
+				return "empty: true explored: " + explored;
+			return "empty: false explored: " + explored + " pair: " + (pair + 1) + " prefix: " + words(prefix)
+					+ " cycle: " + words(cycle);
+		}
+
+		private static String words(int[] letters) {
+			StringBuilder sb = new StringBuilder();
+			for (int l : letters)
+				sb.append(sb.length() == 0 ? "" : " ").append(l);
+			return sb.toString();
+		}
+	}
+
+	//Search state, valid during a check
+	private Automata automata;
+	private int alph;
+	private StateRegistry registry;
+	/** succ[id * alph + i] is the successor of an expanded state under letter i + 1 */
+	private int[] succ;
+	/** The states whose successors have been computed */
+	private BitSet expanded;
+
+	/**
+	 * Check if the Rabin automata of a Buechi automata accepts anything
+	 * @param automata The Buechi automata
+	 * @param initial The initial Safra tree
+	 * @return The result, with a witness lasso if the language is not empty
+	 */
+	public synchronized Result check(Automata automata, SafraTree initial) {
+		this.automata = automata;
+		this.alph = automata.alphsize;
+		this.registry = new StateRegistry();
+		this.succ = new int[1024 * alph];
+		this.expanded = new BitSet();
+		registry.register(initial);
+
+		try {
+			return search();
+		} finally {
+			this.registry = null;
+			this.succ = null;
+		}
+	}
+
+	/**
+	 * Compute the successors of a state, registering the new ones
+	 */
+	private void expand(int id) {
+		if (expanded.get(id)) return;
+		SafraTree tree = registry.get(id);
+		succ = Explorer.ensureCapacity(succ, (id + 1) * alph);
+		for (int i = 0; i < alph; i++) {
+			int tgt = registry.register(tform.transition(automata, tree, i + 1));
+			succ[id * alph + i] = tgt < 0 ? -tgt - 1 : tgt;
+		}
+		NodeArena.current().reset();
+		expanded.set(id);
+	}
+
+	/**
+	 * Iterative Tarjan search from the initial state
+	 */
+	private Result search() {
+		//index[v] is the DFS number of v plus one, 0 if unvisited
+		int[] index = new int[1024], low = new int[1024];
+		BitSet onStack = new BitSet();
+		int[] stack = new int[64], frames = new int[64], letters = new int[64];
+		int sp = 0, fp = 0, counter = 0;
+
+		//The call stack holds a state and the next letter to follow from it
+		index[0] = low[0] = ++counter;
+		stack[sp++] = 0;
+		onStack.set(0);
+		frames[fp] = 0;
+		letters[fp++] = 0;
+		expand(0);
+
+		while (fp > 0) {
+			int v = frames[fp - 1];
+			if (letters[fp - 1] < alph) {
+				int w = succ[v * alph + letters[fp - 1]++];
+				if (w >= index.length) {
+					index = Arrays.copyOf(index, Math.max(w + 1, index.length * 2));
+					low = Arrays.copyOf(low, index.length);
+				}
+				if (index[w] == 0) {
+					index[w] = low[w] = ++counter;
+					if (sp == stack.length) stack = Arrays.copyOf(stack, sp * 2);
+					stack[sp++] = w;
+					onStack.set(w);
+					if (fp == frames.length) {
+						frames = Arrays.copyOf(frames, fp * 2);
+						letters = Arrays.copyOf(letters, fp * 2);
+					}
+					frames[fp] = w;
+					letters[fp++] = 0;
+					expand(w);
+				} else if (onStack.get(w)) {
+					low[v] = Math.min(low[v], index[w]);
+				}
+				continue;
+			}
+
+			//All successors done
+			fp--;
+			if (fp > 0)
+				low[frames[fp - 1]] = Math.min(low[frames[fp - 1]], low[v]);
+			if (low[v] != index[v]) continue;
+
+			//v is the root of an SCC
+			int start = sp;
+			do {
+				start--;
+				onStack.clear(stack[start]);
+			} while (stack[start] != v);
+			int[] members = Arrays.copyOfRange(stack, start, sp);
+			sp = start;
+
+			Result result = checkScc(members);
+			if (result != null)
+				return result;
+		}
+		return new Result(true, -1, new int[0], new int[0], registry.size());
+	}
+
+	/**
+	 * Check an SCC for an accepting cycle
+	 * @param members The states of the SCC
+	 * @return A non-empty result, or null if the SCC accepts nothing
+	 */
+	private Result checkScc(int[] members) {
+		Arrays.sort(members);
+		int n = automata.nStates;
+		BitSet[] inL = new BitSet[members.length], inR = new BitSet[members.length];
+		BitSet anyR = new BitSet(n);
+		for (int k = 0; k < members.length; k++) {
+			inL[k] = new BitSet(n);
+			inR[k] = new BitSet(n);
+			SafraTree tree = registry.get(members[k]);
+			if (tree.getNode().isPresent()) {
+				marker.collect(tree.getNode().get(), inL[k], inR[k]);
+				inL[k].flip(0, n);
+			}
+			anyR.or(inR[k]);
+		}
+
+		for (int i = anyR.nextSetBit(0); i >= 0; i = anyR.nextSetBit(i + 1)) {
+			//The SCC without the states in L_i
+			BitSet allowed = new BitSet(members.length);
+			for (int k = 0; k < members.length; k++) {
+				if (!inL[k].get(i)) allowed.set(k);
+			}
+			int[] comp = acceptingComponent(members, allowed, inR, i);
+			if (comp != null)
+				return witness(members, comp, inR, i);
+		}
+		return null;
+	}
+
+	/**
+	 * Find a non-trivial SCC of the subgraph of an SCC on some of its states that holds an R_i state
+	 * @param members The states of the SCC, sorted
+	 * @param allowed The positions in members of the states of the subgraph
+	 * @param inR The R memberships of the members
+	 * @param i The pair
+	 * @return The positions in members of the component, or null if there is none
+	 */
+	private int[] acceptingComponent(int[] members, BitSet allowed, BitSet[] inR, int i) {
+		int m = members.length;
+		int[] index = new int[m], low = new int[m];
+		BitSet onStack = new BitSet(m);
+		int[] stack = new int[m], frames = new int[m], letters = new int[m];
+		int counter = 0;
+
+		for (int root = allowed.nextSetBit(0); root >= 0; root = allowed.nextSetBit(root + 1)) {
+			if (index[root] != 0) continue;
+			int sp = 0, fp = 0;
+			index[root] = low[root] = ++counter;
+			stack[sp++] = root;
+			onStack.set(root);
+			frames[fp] = root;
+			letters[fp++] = 0;
+
+			while (fp > 0) {
+				int v = frames[fp - 1];
+				if (letters[fp - 1] < alph) {
+					int w = Arrays.binarySearch(members, succ[members[v] * alph + letters[fp - 1]++]);
+					if (w < 0 || !allowed.get(w)) continue;
+					if (index[w] == 0) {
+						index[w] = low[w] = ++counter;
+						stack[sp++] = w;
+						onStack.set(w);
+						frames[fp] = w;
+						letters[fp++] = 0;
+					} else if (onStack.get(w)) {
+						low[v] = Math.min(low[v], index[w]);
+					}
+					continue;
+				}
+
+				fp--;
+				if (fp > 0)
+					low[frames[fp - 1]] = Math.min(low[frames[fp - 1]], low[v]);
+				if (low[v] != index[v]) continue;
+
+				int start = sp;
+				do {
+					start--;
+					onStack.clear(stack[start]);
+				} while (stack[start] != v);
+				int[] comp = Arrays.copyOfRange(stack, start, sp);
+				sp = start;
+
+				boolean hasR = false;
+				for (int k : comp)
+					hasR |= inR[k].get(i);
+				if (hasR && (comp.length > 1 || selfLoop(members[comp[0]])))
+					return comp;
+			}
+		}
+		return null;
+	}
+
+	private boolean selfLoop(int id) {
+		for (int l = 0; l < alph; l++) {
+			if (succ[id * alph + l] == id) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Build the lasso through an accepting component
+	 */
+	private Result witness(int[] members, int[] comp, BitSet[] inR, int i) {
+		BitSet inComp = new BitSet();
+		int target = -1;
+		for (int k : comp) {
+			inComp.set(members[k]);
+			if (target < 0 && inR[k].get(i)) target = members[k];
+		}
+
+		int[] prefix = path(0, target, null, false);
+		int[] cycle = path(target, target, inComp, true);
+		return new Result(false, i, prefix, cycle, registry.size());
+	}
+
+	/**
+	 * Find a shortest word between two expanded states by BFS
+	 * @param from The source state
+	 * @param to The target state
+	 * @param within The states the path may go through, or null for any expanded state
+	 * @param nonEmpty True iff the word must have at least one letter
+	 * @return The letters of the path
+	 */
+	private int[] path(int from, int to, BitSet within, boolean nonEmpty) {
+		if (from == to && !nonEmpty)
+			return new int[0];
+
+		//parent[v] and letter[v] are the state and letter v was first reached from
+		int[] parent = new int[registry.size()], letter = new int[registry.size()];
+		Arrays.fill(parent, -1);
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		queue.add(from);
+		boolean found = false;
+		while (!queue.isEmpty() && !found) {
+			int v = queue.poll();
+			if (!expanded.get(v)) continue;
+			for (int l = 0; l < alph; l++) {
+				int w = succ[v * alph + l];
+				if (within != null && !within.get(w)) continue;
+				if (parent[w] != -1 || (w == from && w != to)) continue;
+				parent[w] = v;
+				letter[w] = l + 1;
+				if (w == to) {
+					found = true;
+					break;
+				}
+				queue.add(w);
+			}
+		}
+
+		int len = 0;
+		for (int v = to; len == 0 || v != from; v = parent[v])
+			len++;
+		int[] word = new int[len];
+		for (int v = to, k = len - 1; k >= 0; v = parent[v], k--)
+			word[k] = letter[v];
+		return word;
+	}
+}
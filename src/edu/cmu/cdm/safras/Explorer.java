@@ -0,0 +1,163 @@
+package edu.cmu.cdm.safras;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Explores the reachable part of the Rabin automaton generated by a Safra transition function.
+ */
+public abstract class Explorer {
+	/** The transition function used to generate successors */
+	protected final SafraTransition tform;
+
+	/** True iff letters that act the same on a tree should share one transition */
+	protected boolean letterClasses = true;
+
+	/** Collects statistics about the exploration, or null */
+	private Metrics metrics;
+
+	/** Told about every expanded state, or null */
+	private Listener listener;
+
+	/** True iff the successor table is kept for the returned automata */
+	protected boolean retain = true;
+
+	/**
+	 * Receives every state once its successors are known, in state number order
+	 */
+	public interface Listener {
+		/**
+		 * A state was expanded
+		 * @param id The state number
+		 * @param tree The state's tree
+		 * @param succ The successors, where succ[offset + i] is the successor under letter i + 1
+		 * @param offset The start of the state's successors in succ
+		 */
+		void expanded(int id, SafraTree tree, int[] succ, int offset);
+	}
+
+	protected Explorer(SafraTransition tform) {
+		this.tform = tform;
+	}
+
+	/**
+	 * Explore every tree reachable from initial.
+	 * @param automata The Buechi automata being determinized
+	 * @param initial The initial Safra tree
+	 * @return The Rabin automata, with states numbered in BFS discovery order
+	 */
+	public abstract RabinAutomaton explore(Automata automata, SafraTree initial);
+
+	/**
+	 * Turn sharing of transitions between equivalent letters on or off
+	 * @param letterClasses True iff letters that act the same on a tree should share one transition
+	 */
+	public void setLetterClasses(boolean letterClasses) {
+		this.letterClasses = letterClasses;
+	}
+
+	/**
+	 * Collect statistics about explorations from now on
+	 * @param metrics The metrics to update, or null for none
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Tell a listener about every state expanded from now on
+	 * @param listener The listener, or null for none
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Choose whether the successor table is kept. Explorers that number states as they go, sequential and
+	 * compact, then only keep the row being filled, and return an automata with no successor table. The
+	 * others ignore this. Only useful with a listener that writes the transitions out.
+	 * @param retain True iff the returned automata should have its successor table
+	 */
+	public void setRetainSuccessors(boolean retain) {
+		this.retain = retain;
+	}
+
+	/**
+	 * Compute the successors of a tree under every letter of the alphabet.
+	 *
+	 * Every label in a tree is a subset of the root label, so two letters with the same successors on the
+	 * states of the root label lead to the same tree. Only one transition is computed per such class.
+	 * @param automata The Buechi automata being determinized
+	 * @param elem The tree to expand
+	 * @return The successors, where index i holds the successor under letter i+1
+	 */
+	protected SafraTree[] expand(Automata automata, SafraTree elem) {
+		SafraTree[] out = new SafraTree[automata.alphsize];
+		int[] rep = null;
+		if (letterClasses)
+			rep = automata.ts.letterClasses(elem.getNode().map(SafraNode::getLabel).orElseGet(BitSet::new));
+
+		for (int i = 1; i <= automata.alphsize; i++) {
+			if (rep != null && rep[i - 1] != i - 1) {
+				out[i - 1] = out[rep[i - 1]];
+				if (metrics != null) metrics.sharedTransition();
+			} else if (metrics != null) {
+				long st = System.nanoTime();
+				out[i - 1] = tform.transition(automata, elem, i);
+				metrics.transition(System.nanoTime() - st);
+			} else {
+				out[i - 1] = tform.transition(automata, elem, i);
+			}
+		}
+		NodeArena.current().reset();
+		return out;
+	}
+
+	/**
+	 * Record a successor in the metrics, if any
+	 * @param tree The successor
+	 * @param id Its number, negative if it was already known as with StateRegistry.register
+	 */
+	protected void successor(SafraTree tree, int id) {
+		if (metrics != null) metrics.successor(tree, id >= 0);
+	}
+
+	/**
+	 * @return True iff a listener is set, for explorers that have to do extra work to report states
+	 */
+	protected boolean listening() {
+		return listener != null;
+	}
+
+	/**
+	 * Tell the listener, if any, that a state was expanded
+	 * @param id The state number
+	 * @param tree The state's tree
+	 * @param succ The successor table
+	 * @param offset The start of the state's successors in succ
+	 */
+	protected void expanded(int id, SafraTree tree, int[] succ, int offset) {
+		if (listener != null) listener.expanded(id, tree, succ, offset);
+	}
+
+	/**
+	 * Record the progress of the exploration in the metrics, if any
+	 * @param expanded The number of states expanded
+	 * @param states The number of states found
+	 */
+	protected void progress(long expanded, long states) {
+		if (metrics != null) metrics.progress(expanded, states);
+	}
+
+	/**
+	 * Make sure a successor table has room for a number of entries
+	 * @param table The table
+	 * @param size The number of entries needed
+	 * @return The table, or a larger copy of it
+	 */
+	protected static int[] ensureCapacity(int[] table, int size) {
+		if (size <= table.length)
+			return table;
+		return Arrays.copyOf(table, Math.max(size, table.length * 2));
+	}
+}
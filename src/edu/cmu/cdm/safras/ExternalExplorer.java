@@ -0,0 +1,360 @@
+package edu.cmu.cdm.safras;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+/**
+ * Level-synchronous BFS that keeps the explored trees and the visited set on disk, within a memory budget.
+ *
+ * Trees are only held as encodings in a StateFile, and each level is read back from it sequentially. The
+ * successors of a level are spilled to candidate files partitioned by the hash of their encoding, tagged
+ * with their slot, parent * alphabet size + letter. Duplicates are then detected in a batch per partition,
+ * as in delayed duplicate detection: candidates are loaded in chunks that fit the budget and checked
+ * against the partition's visited run and the new trees found so far in the level. New trees keep the
+ * smallest slot they were reached from, and a merge of the partitions by that slot numbers them, so the
+ * numbering is the same as the one SequentialExplorer produces. Slots that reached a tree after its first
+ * occurrence point back at that occurrence until the level is numbered.
+ *
+ * The heap holds the successor table and the offset of every tree, about 4 * alphabet size + 8 bytes per
+ * state, and one chunk of candidates at a time.
+ */
+public class ExternalExplorer extends Explorer {
+	/** The default memory budget, in bytes */
+	public static final long DEFAULT_BUDGET = 256L << 20;
+
+	/** The number of partitions, a power of two */
+	private static final int PARTITIONS = 256;
+
+	/** The directory the working files are created in */
+	private final Path dir;
+	/** The memory budget, in bytes */
+	private final long budget;
+
+	/**
+	 * Create an external explorer
+	 * @param tform The transition function
+	 * @param dir The directory to put working files in, created if needed. A fresh subdirectory is used and
+	 *            deleted afterwards.
+	 * @param budget The memory budget for candidate chunks and file buffers, in bytes
+	 */
+	public ExternalExplorer(SafraTransition tform, Path dir, long budget) {
+		super(tform);
+		this.dir = dir;
+		this.budget = budget;
+	}
+
+	@Override
+	public RabinAutomaton explore(Automata automata, SafraTree initial) {
+		Path work = null;
+		try {
+			Files.createDirectories(dir);
+			work = Files.createTempDirectory(dir, "safras");
+			return explore(automata, initial, work);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (work != null)
+				delete(work);
+		}
+	}
+
+	private RabinAutomaton explore(Automata automata, SafraTree initial, Path work) throws IOException {
+		int alph = automata.alphsize;
+		TreeCodec codec = new TreeCodec();
+
+		//Split the budget between the file buffers of all partitions and a chunk of candidates
+		int buffer = (int) Math.max(1 << 12, Math.min(1 << 20, budget / 4 / PARTITIONS));
+		long chunkBudget = Math.max(1 << 16, budget / 2);
+
+		try (StateFile states = new StateFile(work.resolve("states"), 1 << 16)) {
+			states.append(codec.encode(initial));
+			writeVisited(work, partition(codec.encode(initial)), 0, codec.encode(initial), buffer);
+
+			//succ[slot] is the successor of the slot's parent under its letter, or while a level is being
+			//processed, -(slot + 1) of an earlier slot reaching the same tree
+			int[] succ = new int[1024 * alph];
+
+			for (int from = 0; from < states.size(); ) {
+				int to = states.size();
+				succ = ensureCapacity(succ, to * alph);
+
+				expandLevel(automata, states, from, to, work, codec, buffer);
+				boolean[] touched = findDuplicates(work, succ, buffer, chunkBudget);
+				numberNewTrees(work, states, succ, touched, buffer);
+
+				//Follow the slots that point at an earlier occurrence
+				for (int s = from * alph; s < to * alph; s++) {
+					if (succ[s] < 0)
+						succ[s] = succ[-succ[s] - 1];
+				}
+				if (listening())
+					report(states, succ, from, to, alph);
+
+				progress(to, states.size());
+				from = to;
+			}
+			return new RabinAutomaton(states.states(), alph, succ);
+		}
+	}
+
+	/**
+	 * Tell the listener about a level once its successors are resolved, reading its trees back
+	 */
+	private void report(StateFile states, int[] succ, int from, int to, int alph) throws IOException {
+		try (DataInputStream in = states.reader(from, 1 << 16)) {
+			for (int id = from; id < to; id++)
+				expanded(id, TreeCodec.decode(states.read(in, id)), succ, id * alph);
+		}
+	}
+
+	/**
+	 * Expand a level, spilling every successor to the candidate file of its partition
+	 */
+	private void expandLevel(Automata automata, StateFile states, int from, int to, Path work, TreeCodec codec,
+							 int buffer) throws IOException {
+		int alph = automata.alphsize;
+		DataOutputStream[] cands = new DataOutputStream[PARTITIONS];
+		try (DataInputStream in = states.reader(from, 1 << 16)) {
+			for (int id = from; id < to; id++) {
+				SafraTree[] out = expand(automata, TreeCodec.decode(states.read(in, id)));
+				for (int i = 0; i < alph; i++) {
+					byte[] enc = codec.encode(out[i]);
+					int p = partition(enc);
+					if (cands[p] == null)
+						cands[p] = writer(work.resolve("cand-" + p), false, buffer);
+					writeRecord(cands[p], id * alph + i, enc);
+				}
+			}
+		} finally {
+			for (DataOutputStream c : cands) {
+				if (c != null) c.close();
+			}
+		}
+	}
+
+	/**
+	 * Check the candidates of every partition against the visited runs, in chunks. Slots of known trees are
+	 * resolved, and the first occurrence of every new tree is appended to the partition's new file.
+	 * @return The partitions that had candidates
+	 */
+	private boolean[] findDuplicates(Path work, int[] succ, int buffer, long chunkBudget) throws IOException {
+		boolean[] touched = new boolean[PARTITIONS];
+		for (int p = 0; p < PARTITIONS; p++) {
+			Path cand = work.resolve("cand-" + p);
+			if (!Files.exists(cand)) continue;
+			touched[p] = true;
+
+			try (DataInputStream in = reader(cand, buffer)) {
+				boolean more = true;
+				while (more) {
+					//Load a chunk of candidates. They are in slot order, so the first slot of a tree is its smallest.
+					Map<ByteBuffer, Integer> chunk = new LinkedHashMap<>();
+					long used = 0;
+					while (used < chunkBudget) {
+						int slot;
+						try {
+							slot = in.readInt();
+						} catch (EOFException e) {
+							more = false;
+							break;
+						}
+						byte[] enc = new byte[in.readInt()];
+						in.readFully(enc);
+						Integer first = chunk.putIfAbsent(ByteBuffer.wrap(enc), slot);
+						if (first != null)
+							succ[slot] = -first - 1;
+						else
+							used += enc.length + 96;
+					}
+					if (chunk.isEmpty()) break;
+
+					//Trees visited in earlier levels
+					scan(work.resolve("visited-" + p), buffer, chunk, (id, first) -> succ[first] = id);
+					//Trees found earlier in this level, numbered by the merge
+					scan(work.resolve("new-" + p), buffer, chunk, (slot, first) -> succ[first] = -slot - 1);
+
+					try (DataOutputStream out = writer(work.resolve("new-" + p), true, buffer)) {
+						for (Map.Entry<ByteBuffer, Integer> e : chunk.entrySet())
+							writeRecord(out, e.getValue(), e.getKey().array());
+					}
+				}
+			}
+			Files.delete(cand);
+		}
+		return touched;
+	}
+
+	/**
+	 * Receives the trees of a run that are in a chunk
+	 */
+	private interface Match {
+		/**
+		 * @param tag The tag of the tree in the run
+		 * @param first The first slot of the tree in the chunk
+		 */
+		void match(int tag, int first);
+	}
+
+	/**
+	 * Stream a run of tagged encodings, removing the ones found from a chunk
+	 */
+	private static void scan(Path run, int buffer, Map<ByteBuffer, Integer> chunk, Match match) throws IOException {
+		if (!Files.exists(run)) return;
+		try (DataInputStream in = reader(run, buffer)) {
+			while (!chunk.isEmpty()) {
+				int tag;
+				try {
+					tag = in.readInt();
+				} catch (EOFException e) {
+					return;
+				}
+				byte[] enc = new byte[in.readInt()];
+				in.readFully(enc);
+				Integer first = chunk.remove(ByteBuffer.wrap(enc));
+				if (first != null)
+					match.match(tag, first);
+			}
+		}
+	}
+
+	/**
+	 * Number the new trees of a level in the order of their first slot, with a merge of the new files of
+	 * every partition, appending them to the state file and the visited runs
+	 */
+	private void numberNewTrees(Path work, StateFile states, int[] succ, boolean[] touched, int buffer)
+			throws IOException {
+		//The head of the new file of a partition
+		final class Head {
+			final int partition;
+			final DataInputStream in;
+			int slot;
+			byte[] enc;
+
+			Head(int partition, DataInputStream in) {
+				this.partition = partition;
+				this.in = in;
+			}
+
+			boolean advance() throws IOException {
+				try {
+					slot = in.readInt();
+				} catch (EOFException e) {
+					return false;
+				}
+				enc = new byte[in.readInt()];
+				in.readFully(enc);
+				return true;
+			}
+		}
+
+		PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> Integer.compare(a.slot, b.slot));
+		Map<Integer, DataOutputStream> visited = new HashMap<>();
+		try {
+			for (int p = 0; p < PARTITIONS; p++) {
+				Path fresh = work.resolve("new-" + p);
+				if (!touched[p] || !Files.exists(fresh)) continue;
+				Head head = new Head(p, reader(fresh, buffer));
+				if (head.advance())
+					heads.add(head);
+				else
+					head.in.close();
+			}
+
+			while (!heads.isEmpty()) {
+				Head head = heads.poll();
+				int id = states.append(head.enc);
+				succ[head.slot] = id;
+
+				DataOutputStream out = visited.get(head.partition);
+				if (out == null) {
+					out = writer(work.resolve("visited-" + head.partition), true, buffer);
+					visited.put(head.partition, out);
+				}
+				writeRecord(out, id, head.enc);
+
+				if (head.advance())
+					heads.add(head);
+				else
+					head.in.close();
+			}
+		} finally {
+			for (Head head : heads)
+				head.in.close();
+			for (DataOutputStream out : visited.values())
+				out.close();
+		}
+
+		for (int p = 0; p < PARTITIONS; p++)
+			Files.deleteIfExists(work.resolve("new-" + p));
+	}
+
+	/**
+	 * Add the initial tree to its visited run
+	 */
+	private static void writeVisited(Path work, int p, int id, byte[] enc, int buffer) throws IOException {
+		try (DataOutputStream out = writer(work.resolve("visited-" + p), true, buffer)) {
+			writeRecord(out, id, enc);
+		}
+	}
+
+	/**
+	 * The partition of an encoding
+	 */
+	private static int partition(byte[] enc) {
+		return (Arrays.hashCode(enc) * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(PARTITIONS));
+	}
+
+	/**
+	 * Write a tagged encoding: the tag, the length and the bytes
+	 */
+	private static void writeRecord(DataOutputStream out, int tag, byte[] enc) throws IOException {
+		out.writeInt(tag);
+		out.writeInt(enc.length);
+		out.write(enc);
+	}
+
+	private static DataOutputStream writer(Path file, boolean append, int buffer) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(append
+				? Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+				: Files.newOutputStream(file), buffer));
+	}
+
+	private static DataInputStream reader(Path file, int buffer) throws IOException {
+		return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), buffer));
+	}
+
+	/**
+	 * Delete the working directory. The state file may still be mapped, which is fine where unlinking open
+	 * files is allowed; elsewhere it is left behind.
+	 */
+	private static void delete(Path work) {
+		try (Stream<Path> files = Files.list(work)) {
+			for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+				try {
+					Files.delete(it.next());
+				} catch (IOException e) {
+					//Still mapped
+				}
+			}
+			Files.deleteIfExists(work);
+		} catch (IOException e) {
+			//Left behind
+		}
+	}
+}
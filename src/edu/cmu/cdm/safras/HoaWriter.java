@@ -0,0 +1,119 @@
+package edu.cmu.cdm.safras;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+/**
+ * Streams a determinized automata in the Hanoi Omega-Automata format.
+ *
+ * Letter l is the valuation l - 1 of ceil(log2 alphsize) atomic propositions p0, p1, ..., with p0 the
+ * lowest bit. Rabin pairs are state-based, with pair i as Fin(2i) & Inf(2i + 1): a state is in set 2i iff
+ * it is in L of pair i, and in set 2i + 1 iff it is in R. Compact trees have transition-based parity
+ * acceptance, where priority p is set p - 1 under "parity min odd". The States header is left out since
+ * the number of states is not known until the end.
+ */
+public class HoaWriter extends StreamWriter {
+	/** The label of every letter */
+	private final String[] labels;
+	private final StringBuilder line = new StringBuilder();
+
+	/**
+	 * Open a writer and write the header
+	 * @param file The output file
+	 * @param automata The Buechi automata being determinized
+	 * @param tform The transition function the explorer uses
+	 * @throws IOException If the file cannot be written
+	 */
+	public HoaWriter(Path file, Automata automata, SafraTransition tform) throws IOException {
+		super(file, automata, tform);
+		int alph = automata.alphsize;
+		int aps = alph <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(alph - 1);
+		labels = new String[alph];
+		for (int l = 0; l < alph; l++) {
+			StringBuilder label = new StringBuilder();
+			for (int b = 0; b < aps; b++)
+				label.append(b == 0 ? "" : "&").append((l >>> b & 1) == 0 ? "!" : "").append(b);
+			labels[l] = aps == 0 ? "t" : label.toString();
+		}
+
+		line.append("HOA: v1\ntool: \"safras\"\nStart: 0\nAP: ").append(aps);
+		for (int b = 0; b < aps; b++)
+			line.append(" \"p").append(b).append('"');
+		line.append('\n');
+		if (parity != null) {
+			int colors = 2 * automata.nStates + 1;
+			line.append("acc-name: parity min odd ").append(colors).append('\n');
+			line.append("Acceptance: ").append(colors).append(' ').append(parityCondition(0, colors)).append('\n');
+			line.append("properties: trans-labels explicit-labels trans-acc deterministic");
+		} else {
+			int pairs = automata.nStates;
+			line.append("acc-name: Rabin ").append(pairs).append('\n');
+			line.append("Acceptance: ").append(2 * pairs).append(' ');
+			if (pairs == 0)
+				line.append('f');
+			for (int i = 0; i < pairs; i++)
+				line.append(i == 0 ? "" : " | ").append("(Fin(").append(2 * i).append(") & Inf(").append(2 * i + 1).append("))");
+			line.append("\nproperties: trans-labels explicit-labels state-acc deterministic");
+		}
+		line.append(Integer.bitCount(alph) == 1 ? " complete\n" : "\n").append("--BODY--\n");
+		put(line);
+	}
+
+	/**
+	 * The parity min odd condition from a color on
+	 */
+	private static String parityCondition(int color, int colors) {
+		String set = (color % 2 == 0 ? "Fin(" : "Inf(") + color + ")";
+		if (color == colors - 1)
+			return set;
+		String rest = parityCondition(color + 1, colors);
+		return set + (color % 2 == 0 ? " & " : " | ") + (color + 2 == colors ? rest : "(" + rest + ")");
+	}
+
+	@Override
+	protected void writeState(int id, int[] succ, int offset, BitSet inL, BitSet inR, int[] priorities)
+			throws IOException {
+		line.setLength(0);
+		line.append("State: ").append(id);
+		if (inL != null && !(inL.isEmpty() && inR.isEmpty())) {
+			//Sets in increasing order, interleaving L and R
+			String sep = " {";
+			for (int i = 0; i < automata.nStates; i++) {
+				if (inL.get(i)) {
+					line.append(sep).append(2 * i);
+					sep = " ";
+				}
+				if (inR.get(i)) {
+					line.append(sep).append(2 * i + 1);
+					sep = " ";
+				}
+			}
+			line.append('}');
+		}
+		line.append('\n');
+		for (int l = 0; l < labels.length; l++) {
+			line.append('[').append(labels[l]).append("] ").append(succ[offset + l]);
+			if (priorities != null)
+				line.append(" {").append(priorities[l] - 1).append('}');
+			line.append('\n');
+		}
+		put(line);
+	}
+
+	@Override
+	protected void writeEnd() throws IOException {
+		line.setLength(0);
+		put(line.append("--END--\n"));
+	}
+
+	/**
+	 * Put ASCII text into the buffer
+	 */
+	private void put(CharSequence text) throws IOException {
+		ByteBuffer buf = room(text.length());
+		for (int i = 0; i < text.length(); i++)
+			buf.put((byte) text.charAt(i));
+	}
+}
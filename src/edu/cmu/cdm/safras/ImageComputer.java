@@ -0,0 +1,258 @@
+package edu.cmu.cdm.safras;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes images of labels under letters, memoized.
+ *
+ * Recently used (letter, label) pairs are kept in a bounded LRU cache, split into locked segments so
+ * that parallel explorers can share it. Misses are computed with Four Russians tables: for every letter,
+ * every 8 bit chunk of a label and every value of that chunk, the table holds the union of the successors
+ * of the states in the chunk, so an image is one table OR per non-zero byte of the label. Tables are
+ * built the first time a letter is used, as long as they fit in the memory budget; letters past the
+ * budget fall back to the transition system.
+ */
+public class ImageComputer {
+	/** The default number of cached images */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	/** The default memory budget for tables, in bytes */
+	public static final long DEFAULT_TABLE_BUDGET = 64L << 20;
+
+	/** The number of cache segments, a power of two */
+	private static final int SEGMENTS = 16;
+
+	private final TransitionSystem ts;
+	private final int nStates;
+	/** The number of longs in a label */
+	private final int words;
+	/** The number of 8 bit chunks in a label */
+	private final int chunks;
+
+	/** tables.get(letter-1)[(chunk * 256 + value) * words + w] is word w of the image of that chunk value */
+	private final AtomicReferenceArray<long[]> tables;
+	/** The number of letters that may have a table */
+	private final int tableLetters;
+
+	/** The cache segments, or null if caching is off */
+	private final Segment[] segments;
+
+	/** A reusable key per thread, so that cache hits allocate nothing */
+	private final ThreadLocal<Key> probes = ThreadLocal.withInitial(Key::new);
+
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+	/**
+	 * Create an image computer with the default cache capacity and table budget
+	 * @param am The automata
+	 */
+	public ImageComputer(Automata am) {
+		this(am, DEFAULT_CAPACITY, DEFAULT_TABLE_BUDGET);
+	}
+
+	/**
+	 * Create an image computer
+	 * @param am The automata
+	 * @param capacity The number of cached images, 0 to turn the cache off
+	 * @param tableBudget The memory budget for tables, in bytes
+	 */
+	public ImageComputer(Automata am, int capacity, long tableBudget) {
+		this.ts = am.ts;
+		this.nStates = am.nStates;
+		this.words = ts.words();
+		this.chunks = (nStates + 7) >>> 3;
+		this.tables = new AtomicReferenceArray<>(am.alphsize);
+
+		long perLetter = (long) chunks * 256 * words * 8;
+		this.tableLetters = perLetter == 0 ? 0 : (int) Math.min(am.alphsize, tableBudget / perLetter);
+
+		if (capacity > 0) {
+			segments = new Segment[SEGMENTS];
+			for (int i = 0; i < SEGMENTS; i++)
+				segments[i] = new Segment(Math.max(1, capacity / SEGMENTS));
+		} else {
+			segments = null;
+		}
+	}
+
+	/**
+	 * Compute the image of a label under a letter
+	 * @param character The character being transitioned under
+	 * @param label The states to transition from. Must not be modified while it is cached.
+	 * @param out The set the successors are added to
+	 */
+	public void image(int character, BitSet label, BitSet out) {
+		if (segments == null) {
+			compute(character, label, out);
+			return;
+		}
+
+		Key probe = probes.get().set(character, label);
+		Segment segment = segments[(probe.hash ^ (probe.hash >>> 16)) & (SEGMENTS - 1)];
+		BitSet result;
+		synchronized (segment) {
+			result = segment.get(probe);
+		}
+		if (result != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+			result = new BitSet(nStates);
+			compute(character, label, result);
+			synchronized (segment) {
+				segment.put(new Key().set(character, label), result);
+			}
+		}
+		out.or(result);
+	}
+
+	/**
+	 * Compute the image of a label under a letter into a wide label, without the cache. Each chunk of the
+	 * label adds a row of the letter's table with one bulk or.
+	 * @param character The character being transitioned under
+	 * @param label The states to transition from
+	 * @param out The label the successors are added to, as wide as the automata
+	 */
+	public void image(int character, BitSet label, Label out) {
+		accumulate(character, label, out.words);
+	}
+
+	/**
+	 * Compute an image without the cache
+	 */
+	private void compute(int character, BitSet label, BitSet out) {
+		if (table(character) == null) {
+			ts.image(character, label, out);
+			return;
+		}
+		long[] acc = new long[words];
+		accumulate(character, label, acc);
+		out.or(BitSet.valueOf(acc));
+	}
+
+	/**
+	 * Add the image of a label to the words of a set
+	 */
+	private void accumulate(int character, BitSet label, long[] acc) {
+		long[] table = table(character);
+		if (table == null) {
+			for (int s = label.nextSetBit(0); s >= 0 && s < nStates; s = label.nextSetBit(s + 1))
+				ts.row(character, s, acc, 0);
+			return;
+		}
+
+		long[] src = label.toLongArray();
+		for (int w = 0; w < src.length && w << 6 < nStates; w++) {
+			for (long bits = src[w]; bits != 0; ) {
+				int shift = Long.numberOfTrailingZeros(bits) & ~7;
+				int chunk = (w << 3) + (shift >>> 3);
+				int value = (int) (bits >>> shift) & 0xFF;
+				bits &= ~(0xFFL << shift);
+				if (chunk >= chunks) break;
+
+				int base = ((chunk << 8) + value) * words;
+				for (int i = 0; i < words; i++)
+					acc[i] |= table[base + i];
+			}
+		}
+	}
+
+	/**
+	 * Get the table of a letter, building it if needed
+	 * @param character The letter
+	 * @return The table, or null if the letter has none
+	 */
+	private long[] table(int character) {
+		if (character < 1 || character > tableLetters) return null;
+		long[] table = tables.get(character - 1);
+		if (table != null) return table;
+
+		//Each value of a chunk is the value without its lowest bit, plus the row of that bit's state
+		table = new long[chunks * 256 * words];
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			for (int value = 1; value < 256; value++) {
+				int state = (chunk << 3) + Integer.numberOfTrailingZeros(value);
+				int base = ((chunk << 8) + value) * words;
+				System.arraycopy(table, ((chunk << 8) + (value & (value - 1))) * words, table, base, words);
+				ts.row(character, state, table, base);
+			}
+		}
+		//Another thread may have built it concurrently, in which case use theirs
+		return tables.compareAndSet(character - 1, null, table) ? table : tables.get(character - 1);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return The fraction of lookups answered from the cache
+	 */
+	public double hitRate() {
+		long h = hits.sum(), m = misses.sum();
+		return h + m == 0 ? 0 : (double) h / (h + m);
+	}
+
+	@Override
+	public String toString() {
+		return "image cache hits: " + getHits() + " misses: " + getMisses() + " hit rate: " + hitRate();
+	}
+
+	/**
+	 * A cached (letter, label) pair
+	 */
+	private static final class Key {
+		int character;
+		BitSet label;
+		int hash;
+
+		/**
+		 * Point the key at a pair. Keys in the cache are never changed.
+		 * @return The key
+		 */
+		Key set(int character, BitSet label) {
+			this.character = character;
+			this.label = label;
+			this.hash = 31 * label.hashCode() + character;
+			return this;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key key = (Key) o;
+			return character == key.character && label.equals(key.label);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * An LRU map over part of the keys
+	 */
+	private static final class Segment extends LinkedHashMap<Key, BitSet> {
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, BitSet> eldest) {
+			return size() > capacity;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package edu.cmu.cdm.safras;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A fixed width set of Buechi states backed by a long[], for labels of wide automata.
+ *
+ * Unlike BitSet there is no tracking of the words in use and no resizing, so every bulk operation is a
+ * plain loop over the words. The element-wise operations (or, and, andNot) and the tests (isEmpty,
+ * intersects) go through LabelVectors, which uses the Vector API on the widest long vectors of the machine,
+ * when it was built from the vector source root and the JVM runs with --add-modules jdk.incubator.vector,
+ * and through the scalar loops of LabelLoops otherwise. Every label taking part in an operation must have
+ * the same width.
+ */
+public final class Label {
+	/** The implementation of the bulk operations, constant so that calls through it are inlined */
+	private static final LabelOps OPS = ops();
+	/** True iff the bulk operations use the Vector API */
+	static final boolean VECTOR = !(OPS instanceof LabelLoops);
+
+	/** The words of the set, bit i of word w being state 64 * w + i */
+	final long[] words;
+
+	/**
+	 * @return How bulk operations are done, for reports: vector with the width LabelVectors gives, or scalar
+	 */
+	public static String implementation() {
+		return VECTOR ? "vector, " + OPS : "scalar";
+	}
+
+	/**
+	 * Load LabelVectors by name, since it is only compiled and only loadable with the Vector API module
+	 */
+	private static LabelOps ops() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				return Class.forName("edu.cmu.cdm.safras.LabelVectors").asSubclass(LabelOps.class)
+						.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				//Built without the vector source root
+			}
+		}
+		return new LabelLoops();
+	}
+
+	/**
+	 * Create an empty label
+	 * @param nStates The number of states it can hold
+	 */
+	public Label(int nStates) {
+		this.words = new long[(nStates + 63) >>> 6];
+	}
+
+	/**
+	 * Create a label holding the states of a BitSet
+	 * @param nStates The number of states it can hold
+	 * @param set The states, all below nStates
+	 * @return The label
+	 */
+	public static Label of(int nStates, BitSet set) {
+		Label label = new Label(nStates);
+		label.load(set);
+		return label;
+	}
+
+	/**
+	 * Replace the contents with the states of a BitSet
+	 * @param set The states, which must fit
+	 */
+	public void load(BitSet set) {
+		clear();
+		long[] src = set.toLongArray();
+		System.arraycopy(src, 0, words, 0, src.length);
+	}
+
+	/**
+	 * @return A BitSet holding the same states
+	 */
+	public BitSet toBitSet() {
+		return BitSet.valueOf(words);
+	}
+
+	public void clear() {
+		Arrays.fill(words, 0);
+	}
+
+	/**
+	 * Hold exactly the states below n
+	 * @param n The number of states, at most the width
+	 */
+	public void setFirst(int n) {
+		int full = n >>> 6;
+		Arrays.fill(words, 0, full, -1L);
+		if (full < words.length) {
+			words[full] = (n & 63) == 0 ? 0 : -1L >>> (64 - (n & 63));
+			Arrays.fill(words, full + 1, words.length, 0);
+		}
+	}
+
+	public boolean get(int state) {
+		return (words[state >>> 6] & (1L << state)) != 0;
+	}
+
+	public void set(int state) {
+		words[state >>> 6] |= 1L << state;
+	}
+
+	public void copy(Label other) {
+		System.arraycopy(other.words, 0, words, 0, words.length);
+	}
+
+	public void or(Label other) {
+		OPS.or(words, other.words);
+	}
+
+	/**
+	 * Add the states of a run of words of a larger array, such as a row of a table
+	 * @param src The array
+	 * @param offset The index of the first word
+	 */
+	public void or(long[] src, int offset) {
+		OPS.or(words, src, offset);
+	}
+
+	public void and(Label other) {
+		OPS.and(words, other.words);
+	}
+
+	public void andNot(Label other) {
+		OPS.andNot(words, other.words);
+	}
+
+	public boolean isEmpty() {
+		return OPS.isEmpty(words);
+	}
+
+	public boolean intersects(Label other) {
+		return OPS.intersects(words, other.words);
+	}
+
+	public int cardinality() {
+		int count = 0;
+		for (long w : words)
+			count += Long.bitCount(w);
+		return count;
+	}
+
+	/**
+	 * @param from The first state to look at
+	 * @return The first state at or after from, or -1 if there is none
+	 */
+	public int nextSetBit(int from) {
+		int w = from >>> 6;
+		if (w >= words.length) return -1;
+		long word = words[w] & (-1L << from);
+		while (word == 0) {
+			if (++w == words.length) return -1;
+			word = words[w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof Label && Arrays.equals(words, ((Label) o).words);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(words);
+	}
+
+	@Override
+	public String toString() {
+		return toBitSet().toString();
+	}
+}
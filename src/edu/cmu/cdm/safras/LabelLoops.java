@@ -0,0 +1,59 @@
+package edu.cmu.cdm.safras;
+
+/**
+ * The bulk operations of Label as scalar loops, used when the Vector API is not available.
+ *
+ * The element-wise operations are plain counted loops, which C2 may compile to SIMD code on its own. The
+ * tests reduce the words in blocks, so the inner loop can still be unrolled but the test stops at the
+ * first block that decides it.
+ */
+final class LabelLoops implements LabelOps {
+	/** The number of words reduced between early exits of isEmpty and intersects */
+	private static final int BLOCK = 8;
+
+	@Override
+	public void or(long[] a, long[] b) {
+		for (int i = 0; i < a.length; i++)
+			a[i] |= b[i];
+	}
+
+	@Override
+	public void or(long[] a, long[] src, int offset) {
+		for (int i = 0; i < a.length; i++)
+			a[i] |= src[offset + i];
+	}
+
+	@Override
+	public void and(long[] a, long[] b) {
+		for (int i = 0; i < a.length; i++)
+			a[i] &= b[i];
+	}
+
+	@Override
+	public void andNot(long[] a, long[] b) {
+		for (int i = 0; i < a.length; i++)
+			a[i] &= ~b[i];
+	}
+
+	@Override
+	public boolean isEmpty(long[] a) {
+		for (int from = 0; from < a.length; from += BLOCK) {
+			long acc = 0;
+			for (int i = from, to = Math.min(from + BLOCK, a.length); i < to; i++)
+				acc |= a[i];
+			if (acc != 0) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean intersects(long[] a, long[] b) {
+		for (int from = 0; from < a.length; from += BLOCK) {
+			long acc = 0;
+			for (int i = from, to = Math.min(from + BLOCK, a.length); i < to; i++)
+				acc |= a[i] & b[i];
+			if (acc != 0) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,25 @@
+package edu.cmu.cdm.safras;
+
+/**
+ * The bulk operations of Label on its words. Every array taking part in an operation has the same length,
+ * except the source of or with an offset, which only needs to hold that many words past the offset.
+ */
+interface LabelOps {
+	void or(long[] a, long[] b);
+
+	/**
+	 * Add a run of words of a larger array to a
+	 * @param a The words receiving the run
+	 * @param src The array
+	 * @param offset The index of the first word of the run
+	 */
+	void or(long[] a, long[] src, int offset);
+
+	void and(long[] a, long[] b);
+
+	void andNot(long[] a, long[] b);
+
+	boolean isEmpty(long[] a);
+
+	boolean intersects(long[] a, long[] b);
+}
@@ -0,0 +1,141 @@
+package edu.cmu.cdm.safras;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Rabin automata of a Buechi automata, determinized on demand.
+ *
+ * States are Safra trees. Successors are computed the first time they are asked for and memoized in a
+ * bounded LRU cache of states, each holding the successors computed so far. Evicted states are simply
+ * recomputed, which gives equal trees since nodes are canonical. Only the part of the automata that is
+ * visited is ever built. Safe to use from several threads as long as the transition function is.
+ */
+public class LazyRabinAutomaton {
+	/** The default number of cached states */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private final Automata automata;
+	private final SafraTransition tform;
+	private final SafraTree initial;
+	private final Marker marker = new Marker();
+
+	/** The computed successors of recently used states, indexed by letter - 1 */
+	private final Map<SafraTree, SafraTree[]> cache;
+
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+	/**
+	 * Determinize an automata lazily with the monopass transformer and the default cache capacity
+	 * @param automata The Buechi automata
+	 */
+	public LazyRabinAutomaton(Automata automata) {
+		this(automata, new MonopassTransformer(), DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Determinize an automata lazily
+	 * @param automata The Buechi automata
+	 * @param tform The transition function, which must build classic Safra trees
+	 * @param capacity The number of states whose successors are cached
+	 * @throws IllegalArgumentException For PitermanTransformer, whose compact trees have another initial
+	 * state and no Rabin pairs
+	 */
+	public LazyRabinAutomaton(Automata automata, SafraTransition tform, int capacity) {
+		if (tform instanceof PitermanTransformer)
+			throw new IllegalArgumentException("Lazy determinization uses Rabin pairs, which compact trees do not have");
+		this.automata = automata;
+		this.tform = tform;
+		this.initial = Main.initialTree(automata);
+		this.cache = new LinkedHashMap<SafraTree, SafraTree[]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<SafraTree, SafraTree[]> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @return The initial state
+	 */
+	public SafraTree initial() {
+		return initial;
+	}
+
+	public int getAlphsize() {
+		return automata.alphsize;
+	}
+
+	/**
+	 * Get the successor of a state, computing it if it is not cached
+	 * @param state The state
+	 * @param letter The letter, from 1 to the alphabet size
+	 * @return The successor
+	 */
+	public SafraTree successor(SafraTree state, int letter) {
+		if (letter < 1 || letter > automata.alphsize)
+			throw new IllegalArgumentException("Letter " + letter + " outside of the alphabet of size " + automata.alphsize);
+
+		synchronized (cache) {
+			SafraTree[] succ = cache.get(state);
+			if (succ != null && succ[letter - 1] != null) {
+				hits.increment();
+				return succ[letter - 1];
+			}
+		}
+
+		//Compute outside the lock, so other threads are not held up by the transition
+		misses.increment();
+		SafraTree next = tform.transition(automata, state, letter);
+		NodeArena.current().reset();
+
+		synchronized (cache) {
+			SafraTree[] succ = cache.get(state);
+			if (succ == null) {
+				succ = new SafraTree[automata.alphsize];
+				cache.put(state, succ);
+			}
+			succ[letter - 1] = next;
+		}
+		return next;
+	}
+
+	/**
+	 * Find the Rabin pairs a state belongs to. Pair i is the one of Buechi state i, as built by Marker.
+	 * @param state The state
+	 * @param inL Receives every i such that the state is in L of pair i
+	 * @param inR Receives every i such that the state is in R of pair i
+	 */
+	public void acceptance(SafraTree state, BitSet inL, BitSet inR) {
+		state.getNode().ifPresent(node -> {
+			BitSet present = new BitSet(automata.nStates);
+			marker.collect(node, present, inR);
+			present.flip(0, automata.nStates);
+			inL.or(present);
+		});
+	}
+
+	/**
+	 * @return The number of cached states
+	 */
+	public int cached() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "lazy successor hits: " + getHits() + " misses: " + getMisses() + " cached states: " + cached();
+	}
+}
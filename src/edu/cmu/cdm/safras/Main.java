@@ -1,92 +1,20 @@
 package edu.cmu.cdm.safras;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.util.*;
 
 public class Main {
 
 
 	/**
-	 * Parse a file filename into an internal automata
-	 * @param filename The file to parse
-	 * @return An abstract represntation of a Buchi automata
-	 * @throws IOException If the file cannot be read
+	 * Build the initial Safra tree of an automata
+	 * @param source The Buechi automata
+	 * @return The initial state of the Rabin automata
 	 */
-	private static Automata parse(String filename) throws IOException {
-		/*
-			This function is a state machine, with the current state stored in state
-		 */
-		List<String> lines = Files.readAllLines(FileSystems.getDefault().getPath(filename));
-		int state = 0;
-		int nstates = 0;
-		int ntrans = 0, alphsize = 0;
-		BitSet initals = new BitSet(), finals = new BitSet();
-		List<TransitionSystem.Transition> transitions = new LinkedList<>();
-
-		for (String line : lines) {
-			//File start
-			if (line.equals("BUECHI") && state == 0) {
-				state = 1;
-				//The file's started, let's get off to the races
-				continue;
-			}
-			if (state == 0) continue; // File hasn't started yet
-			if (line.startsWith("#")) continue; //Comment
-
-			switch (state) {
-				case 1:
-					//First item is the number of states
-					nstates = Integer.parseInt(line);
-					state = 2;
-					continue;
-				case 2:
-					//Second is the alphabet size
-					alphsize = Integer.parseInt(line);
-					state = 6;
-					continue;
-				case 6:
-					//Third (sorry about the name) is the number of transitions
-					ntrans = Integer.parseInt(line);
-					state = 3;
-					continue;
-				case 3:
-					//Fourth (name etc etc) is the list of transitions
-					String[] split = line.split(" ");
-					transitions.add(new TransitionSystem.Transition(Integer.parseInt(split[0])-1, Integer.parseInt(split[4])-1, Integer.parseInt(split[2])));
-
-					if (--ntrans <= 0) {
-						//If we've read all of them, then stop
-						state = 4;
-						continue;
-					}
-					continue;
-				case 4:
-					//Fifth is initial states
-					Arrays.asList(line.split(" ")).stream().filter(str -> !str.isEmpty()).map(Integer::parseInt)
-							.map(n->n-1)
-							.forEach(initals::set);
-					state = 5;
-					continue;
-				case 5:
-					//Sixth is final states
-					Arrays.asList(line.split(" ")).stream().filter(str -> !str.isEmpty()).map(Integer::parseInt)
-							.map(n -> n - 1)
-							.forEach(finals::set);
-					break;
-			}
-			//We're done, go away now.
-			break;
-		}
-		return new Automata(nstates, initals, finals, alphsize, transitions);
-	}
-
-
-	public static void main(String[] args) throws IOException {
-		//Parse the input automata
-		Automata source = parse(args[0]);
-
+	static SafraTree initialTree(Automata source) {
 		//The starting state
 		SafraNode initial;
 
@@ -105,94 +33,211 @@ public class Main {
 				used.set(0);
 			} else {
 				SafraNode ic = SafraNode.create(2, bs, false, new ArrayList<>());
-				initial = SafraNode.create(1, source.initial, true, (ArrayList<SafraNode>) Arrays.asList(ic));
+				initial = SafraNode.create(1, source.initial, true, new ArrayList<>(Arrays.asList(ic)));
 				used.set(0,1);
 			}
 		}
+		return new SafraTree(Optional.of(initial), used);
+	}
 
-		//The set of transitions of the Rabin automata
-		HashMap<SafraTree, HashMap<Integer, SafraTree>> transitions = new HashMap<>();
-
-		//The BFS frontier
-		Queue<SafraTree> frontier = new LinkedList<>();
-		//A constant-time guard for aforementioned frontier
-		HashSet<SafraTree> frontierSet = new HashSet<>();
-
-		//The nodes that have been seen. Improves memory performance.
-		HashMap<SafraTree,SafraTree> treeNodes = new HashMap<>();
+	/**
+	 * Create a transition function by name
+	 * @param name The name: auto, monopass, scratch, small, wide, multipass or piterman
+	 * @param source The automata it will be used on, which auto picks the engine for
+	 * @return The transition function
+	 */
+	static SafraTransition transformer(String name, Automata source) {
+		//Multipass is the reference (slower) implementation, monopass is the fast one, scratch is
+		//monopass without allocation, small is scratch on single longs for up to 64 states and wide is
+		//scratch on long[] labels. Piterman builds compact trees with parity acceptance on the transitions
+		//instead.
+		switch (name) {
+			case "auto":
+				return SmallTransformer.supports(source) ? new SmallTransformer() : new MonopassTransformer();
+			case "monopass":
+				return new MonopassTransformer();
+			case "scratch":
+				return new ScratchTransformer();
+			case "small":
+				return new SmallTransformer();
+			case "wide":
+				return new WideTransformer();
+			case "multipass":
+				return new MultipassTransformer();
+			case "piterman":
+				return new PitermanTransformer();
+			default:
+				throw new IllegalArgumentException("Unknown transformer " + name);
+		}
+	}
 
-		//The initial tree
-		SafraTree tree = new SafraTree(Optional.of(initial), used);
-		frontier.add(tree);
-		frontierSet.add(tree);
+	/**
+	 * Run an explorer and time it
+	 * @param explorer The explorer to run
+	 * @param source The Buechi automata
+	 * @param tree The initial tree
+	 * @param time Receives the number of seconds elapsed
+	 * @return The Rabin automata found by the explorer
+	 */
+	private static RabinAutomaton explore(Explorer explorer, Automata source, SafraTree tree, float[] time) {
+		long st = System.nanoTime();
+		RabinAutomaton automaton = explorer.explore(source, tree);
+		time[0] = (System.nanoTime() - st)/1000000000.0f;
+		return automaton;
+	}
 
+	/**
+	 * Write an explored automata to the output file, a state at a time as if it was being explored
+	 * @param automaton The automata
+	 * @param options The options giving the file and format
+	 * @param source The Buechi automata
+	 * @param tform The transition function it was explored with
+	 * @throws IOException If the file cannot be written
+	 */
+	private static void write(RabinAutomaton automaton, Options options, Automata source, SafraTransition tform)
+			throws IOException {
+		try (StreamWriter writer = StreamWriter.open(FileSystems.getDefault().getPath(options.output),
+				options.format, source, tform)) {
+			int[] succ = automaton.getSuccessors();
+			for (int id = 0; id < automaton.size(); id++)
+				writer.expanded(id, automaton.getState(id), succ, id * automaton.getAlphsize());
+		}
+	}
 
-		//Multipass is the reference (slower) implementation, monopass is the fast one
-		//SafraTransition tform = new MultipassTransformer();
-		SafraTransition tform = new MonopassTransformer();
+	public static void main(String[] args) throws IOException {
+		Options options = Options.parse(args);
+		NodeArena.setCapacity(options.arena);
+
+		//Many files, each explored sequentially on a shared pool
+		if (options.batch) {
+			if (new Batch(options).run(FileSystems.getDefault().getPath(options.input), System.out) > 0)
+				System.exit(1);
+			return;
+		}
 
-		//Timing start
-		long st = System.nanoTime();
+		//Phase timings are always kept, exploration statistics only when they will be reported
+		Metrics metrics = new Metrics();
+		boolean instrument = options.metrics != null || options.progress > 0;
+		ProgressReporter reporter = options.progress > 0
+				? new ProgressReporter(metrics, (long) (options.progress * 1000), System.err) : null;
 
-		//BFS
-		while (!frontier.isEmpty()) {
-			SafraTree elem = frontier.poll();
-			frontierSet.remove(elem);
-
-			//Generate the new map for the transition function
-			HashMap<Integer, SafraTree> trans = new HashMap<>();
-			for (int i = 1; i <= source.alphsize; i++) {
-				//Find the transition
-				SafraTree tgt = tform.transition(source, elem, i);
-
-				//If we haven't seen the result before, add it to the frontier
-				if (!treeNodes.containsKey(tgt) && !frontierSet.contains(tgt)
-						&& !transitions.containsKey(tgt) && !tgt.equals(elem)) {
-					frontier.offer(tgt);
-					frontierSet.add(tgt);
-				}
-
-				//If the set doesn't have the target yet, add it in.
-				if (!treeNodes.containsKey(tgt)) {
-					trans.put(i, tgt);
-					treeNodes.put(tgt,tgt);
-				} else {
-					//Otherwise, use the target that's already there and toss the new one out.
-					trans.put(i, treeNodes.get(tgt));
-					tgt.getNode().ifPresent(SafraNode::dispose);
-				}
+		//Parse the input automata
+		Automata parsed = metrics.time("parse", () -> AutomataReader.read(FileSystems.getDefault().getPath(options.input)));
+
+		//Shrink the Buechi automata first, the pairs then refer to the states of the reduced one
+		Reducer reducer = options.trim || options.simulation || options.prune
+				? new Reducer(options.trim, options.simulation, options.prune) : null;
+		Automata source = reducer == null ? parsed : metrics.time("reduce", () -> reducer.reduce(parsed));
+		if (reducer != null) {
+			for (String line : reducer.getReport())
+				System.out.println(line);
+		}
+		source.images = new ImageComputer(source, options.imageCache, options.tableBudget);
+
+		//The initial tree, compact for the compact transformer
+		SafraTransition tform = transformer(options.transformer, source);
+		SafraTree tree = tform instanceof PitermanTransformer ? PitermanTransformer.initialTree(source) : initialTree(source);
+
+		//Only check for an accepting lasso, stopping as soon as one is found
+		if (options.emptiness) {
+			long st = System.nanoTime();
+			EmptinessChecker.Result result = metrics.time("emptiness", () -> new EmptinessChecker(tform).check(source, tree));
+			if (reporter != null)
+				reporter.close();
+			System.out.println("time: " + (System.nanoTime() - st)/1000000000.0f + " " + result);
+			if (options.metrics != null)
+				Files.write(FileSystems.getDefault().getPath(options.metrics), metrics.toJson().getBytes(StandardCharsets.UTF_8));
+			return;
+		}
 
+		Explorer explorer;
+		if (options.checkpoint != null)
+			explorer = new CheckpointExplorer(tform, FileSystems.getDefault().getPath(options.checkpoint),
+					options.checkpointInterval, options.resume);
+		else if (options.external != null)
+			explorer = new ExternalExplorer(tform, FileSystems.getDefault().getPath(options.external), options.memory);
+		else if (options.compact)
+			explorer = new CompactExplorer(tform, options.store == null ? null : FileSystems.getDefault().getPath(options.store));
+		else if (options.workers > 0)
+			explorer = new DistributedExplorer(tform, options.workers, options.workerHeap > 0
+					? Collections.singletonList("-Xmx" + options.workerHeap + "m") : Collections.emptyList(),
+					options.imageCache, options.tableBudget);
+		else if (options.parallel)
+			explorer = new ParallelExplorer(tform, options.threads);
+		else
+			explorer = new SequentialExplorer(tform);
+		explorer.setLetterClasses(options.letterClasses);
+		if (instrument)
+			explorer.setMetrics(metrics);
+
+		//Explore, and compute # of seconds elapsed
+		float[] time = new float[1];
+		RabinAutomaton automaton;
+		//The priorities of compact trees, when the writer has them already
+		BitSet written = null;
+		if (options.output != null && !options.minimize) {
+			//Stream every state out as it is expanded
+			try (StreamWriter writer = StreamWriter.open(FileSystems.getDefault().getPath(options.output),
+					options.format, source, tform)) {
+				explorer.setListener(writer);
+				explorer.setRetainSuccessors(!options.discard);
+				automaton = metrics.time("explore", () -> explore(explorer, source, tree, time));
+				written = writer.getPriorities();
 			}
-			//Save the new transition
-			transitions.put(elem, trans);
+			System.out.println("output: " + options.output + " states: " + automaton.size());
+		} else {
+			automaton = metrics.time("explore", () -> explore(explorer, source, tree, time));
+		}
+		float rt = time[0];
+
+		//Run the other explorer too and report the speedup of the parallel one
+		if (options.compare) {
+			float[] otherTime = new float[1];
+			Explorer otherExplorer = options.parallel ? new SequentialExplorer(tform) : new ParallelExplorer(tform, options.threads);
+			otherExplorer.setLetterClasses(options.letterClasses);
+			RabinAutomaton other = explore(otherExplorer, source, tree, otherTime);
+			float seq = options.parallel ? otherTime[0] : rt, par = options.parallel ? rt : otherTime[0];
+			boolean same = automaton.getStates().equals(other.getStates())
+					&& Arrays.equals(automaton.getSuccessors(), other.getSuccessors());
+			System.out.println("sequential: " + seq + " parallel: " + par + " threads: " + options.threads
+					+ " speedup: " + (seq / par) + " identical numbering: " + same);
 		}
-		//Compute # of seconds elapsed
-		float rt = (System.nanoTime() - st)/1000000000.0f;
-
-		//Construct Rabin pairs
-		Marker helper = new Marker();
-		List<Pair<HashSet<SafraTree>,HashSet<SafraTree>>> pairs = new LinkedList<>();
-		//For every state
-		for (int i = 0; i < source.nStates; i++) {
-			//Create L and R sets
-			HashSet<SafraTree> L = new HashSet<>(), R = new HashSet<>();
-
-			//And check all states in the Rabin automata for inclusion
-			for (SafraTree state : transitions.keySet()) {
-				final int ii = i;
-				if (state.getNode().<Boolean>map(node -> helper.inL(node, ii)).orElse(false)) {
-					L.add(state);
-				}
-				if (state.getNode().<Boolean>map(node -> helper.inR(node, ii)).orElse(false)){
-					R.add(state);
-				}
-			}
 
-			//Save them
-			pairs.add(new Pair<>(L,R));
+		//Construct Rabin pairs, or the parity priorities of compact trees
+		List<Pair<BitSet, BitSet>> pairs = tform instanceof PitermanTransformer ? null
+				: metrics.time("pairs", () -> new Marker().pairs(automaton.getStates(), source.nStates));
+		BitSet priorities = written;
+		if (priorities == null && tform instanceof PitermanTransformer) {
+			priorities = new BitSet();
+			for (int p : metrics.time("pairs", () -> ((PitermanTransformer) tform).priorities(automaton, source)))
+				priorities.set(p);
 		}
+		if (reporter != null)
+			reporter.close();
 
 		//Result
-		System.out.println("time: " + rt + " states: " + transitions.size());
+		System.out.println("time: " + rt + " states: " + automaton.size());
+		if (priorities != null)
+			System.out.println("parity: " + priorities.cardinality() + " priorities, min even accepts");
+
+		//Merge equivalent states
+		if (options.minimize) {
+			Minimizer minimizer = new Minimizer();
+			RabinAutomaton minimal = metrics.time("minimize", () -> minimizer.minimize(automaton, pairs));
+			System.out.println("minimized: " + automaton.size() + " -> " + minimal.size() + " states ("
+					+ (100 - 100 * minimal.size() / Math.max(1, automaton.size())) + "% fewer) rounds: "
+					+ minimizer.getRounds() + " time: " + minimizer.getTime());
+			//Downstream tools get the quotient rather than the explored automata
+			if (options.output != null) {
+				write(minimal, options, source, tform);
+				System.out.println("output: " + options.output + " states: " + minimal.size());
+			}
+		}
+		if (options.imageStats)
+			System.out.println(source.images);
+		if (options.arenaStats)
+			System.out.println(NodeArena.stats());
+		if (options.metrics != null)
+			Files.write(FileSystems.getDefault().getPath(options.metrics), metrics.toJson().getBytes(StandardCharsets.UTF_8));
 	}
 }
@@ -1,6 +1,9 @@
 package edu.cmu.cdm.safras;
 
 import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Created by Ben Chung on 12/12/2014.
@@ -31,4 +34,51 @@ public class Marker {
 			return false;
 		return tree.getSubnodes().stream().map(sn->inL(sn,state)).reduce(true, (l,r) -> l && r);
 	}
+
+	/**
+	 * Collect the states of a tree in one traversal
+	 * @param tree The tree to traverse
+	 * @param present Receives every Beuchi state in the tree
+	 * @param marked Receives every Beuchi state in a marked node of the tree
+	 */
+	public void collect(SafraNode tree, BitSet present, BitSet marked) {
+		present.or(tree.getLabel());
+		if (tree.isMark())
+			marked.or(tree.getLabel());
+		List<SafraNode> subnodes = tree.getSubnodes();
+		for (int i = 0; i < subnodes.size(); i++)
+			collect(subnodes.get(i), present, marked);
+	}
+
+	/**
+	 * Build the Rabin pairs of an explored automata, one per Beuchi state.
+	 *
+	 * Every tree is traversed once to find its L and R membership for all Beuchi states at once, then the
+	 * memberships are transposed into one pair of state sets per Beuchi state. Both steps run in parallel.
+	 * @param states The explored trees, indexed by state number
+	 * @param nStates The number of Beuchi states
+	 * @return Pair i holds the L and R sets of Beuchi state i, as sets of state numbers
+	 */
+	public List<Pair<BitSet, BitSet>> pairs(List<SafraTree> states, int nStates) {
+		//inL[id] and inR[id] are the Beuchi states for which tree id is in L and R
+		BitSet[] inL = new BitSet[states.size()], inR = new BitSet[states.size()];
+		IntStream.range(0, states.size()).parallel().forEach(id -> {
+			BitSet present = new BitSet(nStates), marked = new BitSet(nStates);
+			states.get(id).getNode().ifPresent(node -> {
+				collect(node, present, marked);
+				present.flip(0, nStates);
+			});
+			inL[id] = present;
+			inR[id] = marked;
+		});
+
+		return IntStream.range(0, nStates).parallel().mapToObj(i -> {
+			BitSet l = new BitSet(inL.length), r = new BitSet(inR.length);
+			for (int id = 0; id < inL.length; id++) {
+				if (inL[id].get(i)) l.set(id);
+				if (inR[id].get(i)) r.set(id);
+			}
+			return new Pair<>(l, r);
+		}).collect(Collectors.toList());
+	}
 }
@@ -0,0 +1,305 @@
+package edu.cmu.cdm.safras;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Counters and histograms describing a determinization run.
+ *
+ * Explorers given a Metrics count transitions, newly discovered and duplicate trees, and record the
+ * time of every transition, the frontier size, and the shape of every new tree. Main records the time of
+ * each phase, which is also emitted as a JFR event whenever a flight recording is running. Everything
+ * can be updated from several threads at once, and is written out as JSON at the end of a run.
+ */
+public class Metrics {
+	/** Safra transitions computed */
+	final LongAdder transitions = new LongAdder();
+	/** Transitions copied from an equivalent letter instead of computed */
+	final LongAdder sharedTransitions = new LongAdder();
+	/** Successors that were new states */
+	final LongAdder discovered = new LongAdder();
+	/** Successors that were already known */
+	final LongAdder duplicates = new LongAdder();
+
+	/** The number of states found so far */
+	final AtomicLong states = new AtomicLong();
+	/** The number of states expanded so far */
+	final AtomicLong expanded = new AtomicLong();
+
+	/** The time of each transition, in nanoseconds */
+	final Histogram transitionNanos = new Histogram();
+	/** The number of states found but not expanded, sampled at every expansion */
+	final Histogram frontier = new Histogram();
+	/** The depth of each new tree, the empty tree having depth 0 */
+	final Histogram depth = new Histogram();
+	/** The largest number of nodes at one depth of each new tree */
+	final Histogram width = new Histogram();
+	/** The number of nodes of each new tree */
+	final Histogram nodes = new Histogram();
+
+	/** The highest heap use seen, in bytes */
+	private final LongAccumulator heapPeak = new LongAccumulator(Math::max, 0);
+	/** The duration of every finished phase, in nanoseconds, in the order they finished */
+	private final Map<String, Long> phases = new LinkedHashMap<>();
+	private final long start = System.nanoTime();
+
+	/**
+	 * A power of two histogram of non-negative values. Bucket b holds the values of bit length b.
+	 */
+	public static final class Histogram {
+		private final LongAdder[] buckets = new LongAdder[65];
+		private final LongAdder count = new LongAdder(), sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		Histogram() {
+			for (int i = 0; i < buckets.length; i++)
+				buckets[i] = new LongAdder();
+		}
+
+		/**
+		 * Record a value
+		 * @param value The value, negative values counting as 0
+		 */
+		public void record(long value) {
+			value = Math.max(0, value);
+			buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		public double mean() {
+			long n = count.sum();
+			return n == 0 ? 0 : (double) sum.sum() / n;
+		}
+
+		/**
+		 * Estimate a quantile
+		 * @param q The quantile, between 0 and 1
+		 * @return An upper bound on the quantile: the largest value of its bucket, at most the maximum
+		 */
+		public long quantile(double q) {
+			long n = count.sum(), rank = (long) Math.ceil(q * n), seen = 0;
+			for (int b = 0; b < buckets.length; b++) {
+				seen += buckets[b].sum();
+				if (seen >= rank && seen > 0)
+					return Math.min(max.get(), b == 0 ? 0 : b == 64 ? Long.MAX_VALUE : (1L << b) - 1);
+			}
+			return max.get();
+		}
+
+		/**
+		 * @return The histogram as a JSON object
+		 */
+		String toJson() {
+			return "{\"count\": " + getCount() + ", \"mean\": " + mean() + ", \"max\": " + getMax()
+					+ ", \"p50\": " + quantile(0.5) + ", \"p90\": " + quantile(0.9) + ", \"p99\": " + quantile(0.99) + "}";
+		}
+	}
+
+	/**
+	 * The JFR event marking a phase of a run
+	 */
+	@Name("edu.cmu.cdm.safras.Phase")
+	@Label("Determinization Phase")
+	@Category("Safras")
+	@Description("A phase of a determinization run: parse, explore or pairs")
+	static final class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+	}
+
+	/**
+	 * A running phase. Closing it records its duration and commits its JFR event.
+	 */
+	private final class Phase {
+		private final String name;
+		private final PhaseEvent event = new PhaseEvent();
+		private final long begin = System.nanoTime();
+
+		private Phase(String name) {
+			this.name = name;
+			event.phase = name;
+			event.begin();
+		}
+
+		void close() {
+			event.commit();
+			long nanos = System.nanoTime() - begin;
+			synchronized (phases) {
+				phases.merge(name, nanos, Long::sum);
+			}
+			sampleHeap();
+		}
+	}
+
+	/**
+	 * The work of a phase
+	 * @param <T> The result of the work
+	 * @param <E> The exception the work may throw
+	 */
+	public interface Work<T, E extends Exception> {
+		T run() throws E;
+	}
+
+	/**
+	 * Run a phase
+	 * @param name The name of the phase
+	 * @param work The work done in the phase
+	 * @return The result of the work
+	 * @throws E If the work throws it, the phase still being recorded
+	 */
+	public <T, E extends Exception> T time(String name, Work<T, E> work) throws E {
+		Phase phase = new Phase(name);
+		try {
+			return work.run();
+		} finally {
+			phase.close();
+		}
+	}
+
+	/**
+	 * Record a computed transition
+	 * @param nanos The time it took
+	 */
+	void transition(long nanos) {
+		transitions.increment();
+		transitionNanos.record(nanos);
+	}
+
+	/**
+	 * Record a transition copied from an equivalent letter
+	 */
+	void sharedTransition() {
+		sharedTransitions.increment();
+	}
+
+	/**
+	 * Record a successor
+	 * @param tree The successor
+	 * @param isNew True iff it was a new state
+	 */
+	void successor(SafraTree tree, boolean isNew) {
+		if (!isNew) {
+			duplicates.increment();
+			return;
+		}
+		discovered.increment();
+
+		//Walk the tree a level at a time
+		int d = 0, w = 0, total = 0;
+		List<SafraNode> level = tree.getNode().map(Collections::singletonList).orElse(Collections.emptyList());
+		while (!level.isEmpty()) {
+			d++;
+			w = Math.max(w, level.size());
+			total += level.size();
+			List<SafraNode> next = new ArrayList<>();
+			for (SafraNode n : level)
+				next.addAll(n.getSubnodes());
+			level = next;
+		}
+		depth.record(d);
+		width.record(w);
+		nodes.record(total);
+	}
+
+	/**
+	 * Record the progress of the exploration after a state was expanded
+	 * @param expanded The number of states expanded
+	 * @param states The number of states found
+	 */
+	void progress(long expanded, long states) {
+		this.expanded.set(expanded);
+		this.states.set(states);
+		frontier.record(states - expanded);
+	}
+
+	/**
+	 * Record the current heap use
+	 * @return The heap use, in bytes
+	 */
+	long sampleHeap() {
+		Runtime rt = Runtime.getRuntime();
+		long used = rt.totalMemory() - rt.freeMemory();
+		heapPeak.accumulate(used);
+		return used;
+	}
+
+	/**
+	 * @return The fraction of successors that were already known
+	 */
+	public double dedupeHitRate() {
+		long d = duplicates.sum(), n = discovered.sum();
+		return d + n == 0 ? 0 : (double) d / (d + n);
+	}
+
+	/**
+	 * @return The time since the metrics were created, in seconds
+	 */
+	public double elapsed() {
+		return (System.nanoTime() - start) / 1e9;
+	}
+
+	/**
+	 * @return Everything recorded, as a JSON object
+	 */
+	public String toJson() {
+		long heap = sampleHeap();
+		StringBuilder sb = new StringBuilder("{\n");
+		sb.append("  \"elapsed\": ").append(elapsed()).append(",\n");
+		sb.append("  \"phases\": {");
+		synchronized (phases) {
+			String sep = "";
+			for (Map.Entry<String, Long> e : phases.entrySet()) {
+				sb.append(sep).append('"').append(e.getKey()).append("\": ").append(e.getValue() / 1e9);
+				sep = ", ";
+			}
+		}
+		sb.append("},\n");
+		sb.append("  \"states\": ").append(states.get()).append(",\n");
+		sb.append("  \"expanded\": ").append(expanded.get()).append(",\n");
+		sb.append("  \"transitions\": ").append(transitions.sum()).append(",\n");
+		sb.append("  \"sharedTransitions\": ").append(sharedTransitions.sum()).append(",\n");
+		sb.append("  \"discovered\": ").append(discovered.sum()).append(",\n");
+		sb.append("  \"duplicates\": ").append(duplicates.sum()).append(",\n");
+		sb.append("  \"dedupeHitRate\": ").append(dedupeHitRate()).append(",\n");
+		sb.append("  \"transitionNanos\": ").append(transitionNanos.toJson()).append(",\n");
+		sb.append("  \"frontier\": ").append(frontier.toJson()).append(",\n");
+		sb.append("  \"depth\": ").append(depth.toJson()).append(",\n");
+		sb.append("  \"width\": ").append(width.toJson()).append(",\n");
+		sb.append("  \"nodes\": ").append(nodes.toJson()).append(",\n");
+		sb.append("  \"heap\": {\"used\": ").append(heap).append(", \"peak\": ").append(heapPeak.get())
+				.append(", \"max\": ").append(Runtime.getRuntime().maxMemory()).append("},\n");
+		sb.append("  \"gc\": {");
+		List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+		for (int i = 0; i < gcs.size(); i++) {
+			GarbageCollectorMXBean gc = gcs.get(i);
+			sb.append(i == 0 ? "" : ", ").append('"').append(gc.getName()).append("\": {\"count\": ")
+					.append(gc.getCollectionCount()).append(", \"time\": ").append(gc.getCollectionTime() / 1e3).append('}');
+		}
+		sb.append("}\n}\n");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,149 @@
+package edu.cmu.cdm.safras;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Merges equivalent states of an explored Rabin automata by Moore partition refinement.
+ *
+ * States start out split by their membership in the L and R sets of every pair. Each round then splits
+ * every block by the blocks of its states' successors, until no block splits. All blocks are refined in
+ * parallel, and the new blocks of each one are numbered from a prefix sum of their counts, so the result
+ * does not depend on scheduling. States in the same final block accept the same words from every pair,
+ * so merging them keeps the language.
+ */
+public class Minimizer {
+	/** The number of refinement rounds of the last run */
+	private int rounds;
+	/** The time taken by the last run, in seconds */
+	private float time;
+
+	/**
+	 * Minimize an automata
+	 * @param automaton The automata
+	 * @param pairs Its Rabin pairs, as built by Marker
+	 * @return The quotient automata. Each state is represented by the tree of its lowest numbered member,
+	 * and the initial state stays state 0.
+	 */
+	public RabinAutomaton minimize(RabinAutomaton automaton, List<Pair<BitSet, BitSet>> pairs) {
+		long st = System.nanoTime();
+		int n = automaton.size(), alph = automaton.getAlphsize();
+		int[] succ = automaton.getSuccessors();
+
+		//Initial partition by pair membership
+		int words = (pairs.size() + 63) >>> 6;
+		long[][] sig = new long[n][2 * words];
+		for (int i = 0; i < pairs.size(); i++) {
+			BitSet l = pairs.get(i).getL(), r = pairs.get(i).getR();
+			for (int s = l.nextSetBit(0); s >= 0 && s < n; s = l.nextSetBit(s + 1))
+				sig[s][i >>> 6] |= 1L << i;
+			for (int s = r.nextSetBit(0); s >= 0 && s < n; s = r.nextSetBit(s + 1))
+				sig[s][words + (i >>> 6)] |= 1L << i;
+		}
+		int[] block = new int[n];
+		Map<LongBuffer, Integer> initial = new HashMap<>();
+		for (int s = 0; s < n; s++) {
+			Integer b = initial.putIfAbsent(LongBuffer.wrap(sig[s]), initial.size());
+			block[s] = b == null ? initial.size() - 1 : b;
+		}
+		int count = initial.size();
+
+		rounds = 0;
+		while (true) {
+			rounds++;
+			int[] members = membersByBlock(block, count);
+			int[] start = blockStarts(block, count);
+			int[] current = block;
+
+			//Split every block by the blocks of its successors, numbering the pieces locally
+			int[] local = new int[n], pieces = new int[count];
+			IntStream.range(0, count).parallel().forEach(b -> {
+				Map<IntBuffer, Integer> seen = new HashMap<>();
+				for (int k = start[b]; k < start[b + 1]; k++) {
+					int s = members[k];
+					int[] key = new int[alph];
+					for (int l = 0; l < alph; l++)
+						key[l] = current[succ[s * alph + l]];
+					Integer p = seen.putIfAbsent(IntBuffer.wrap(key), seen.size());
+					local[s] = p == null ? seen.size() - 1 : p;
+				}
+				pieces[b] = seen.size();
+			});
+
+			int[] offset = new int[count + 1];
+			for (int b = 0; b < count; b++)
+				offset[b + 1] = offset[b] + pieces[b];
+			if (offset[count] == count)
+				break;
+
+			int[] next = new int[n];
+			IntStream.range(0, n).parallel().forEach(s -> next[s] = offset[current[s]] + local[s]);
+			block = next;
+			count = offset[count];
+		}
+
+		//Number the blocks in the order of their lowest state, so state 0 stays the initial state
+		int[] number = new int[count];
+		Arrays.fill(number, -1);
+		List<SafraTree> reps = new ArrayList<>();
+		for (int s = 0; s < n; s++) {
+			if (number[block[s]] < 0) {
+				number[block[s]] = reps.size();
+				reps.add(automaton.getState(s));
+			}
+		}
+		int[] quotient = new int[count * alph];
+		for (int s = 0; s < n; s++) {
+			int b = number[block[s]];
+			for (int l = 0; l < alph; l++)
+				quotient[b * alph + l] = number[block[succ[s * alph + l]]];
+		}
+
+		time = (System.nanoTime() - st) / 1000000000.0f;
+		return new RabinAutomaton(reps, alph, quotient);
+	}
+
+	/**
+	 * List the states grouped by block
+	 */
+	private static int[] membersByBlock(int[] block, int count) {
+		int[] start = blockStarts(block, count), fill = new int[count];
+		int[] members = new int[block.length];
+		for (int s = 0; s < block.length; s++)
+			members[start[block[s]] + fill[block[s]]++] = s;
+		return members;
+	}
+
+	/**
+	 * The start of every block in membersByBlock, plus the number of states at the end
+	 */
+	private static int[] blockStarts(int[] block, int count) {
+		int[] start = new int[count + 1];
+		for (int b : block)
+			start[b + 1]++;
+		for (int b = 0; b < count; b++)
+			start[b + 1] += start[b];
+		return start;
+	}
+
+	/**
+	 * @return The number of refinement rounds of the last run
+	 */
+	public int getRounds() {
+		return rounds;
+	}
+
+	/**
+	 * @return The time taken by the last run, in seconds
+	 */
+	public float getTime() {
+		return time;
+	}
+}
@@ -8,7 +8,7 @@ import java.util.*;
 public class MonopassTransformer implements SafraTransition {
 
 	/**
-	 * Deletes all nodes in the list and all of their children w.r.t. names
+	 * Releases the names of all nodes in the list and all of their children
 	 * @param nodes The nodes to delete
 	 * @param names The set of names to alter as deletions happen
 	 */
@@ -17,14 +17,15 @@ public class MonopassTransformer implements SafraTransition {
 		for (int i = 0; i < nodes.size(); i++) {
 			SafraNode sn = nodes.get(i);
 			names.clear(sn.getName()-1);
-			SafraNode.dispose(sn);
+			deleteNodes(sn.getSubnodes(), names);
 		}
 	}
 
 	/**
 	 * The recursive bit of a safra transition. 1 traverse implementation.
 	 *
-	 * @param transition The transition system
+	 * @param images The image computer of the transition system
+	 * @param character The letter to transition under
 	 * @param elem The initial safra tree
 	 * @param fresh True iff the node was created in this pass
 	 * @param initNames The set of names going in. Pretend like delete hasn't happened yet here. Used to pretend like we're creating before deleting.
@@ -33,13 +34,16 @@ public class MonopassTransformer implements SafraTransition {
 	 * @param finals The set of final states in the DFA. Used for determining labels in create.
 	 * @return
 	 */
-	private static Optional<SafraNode> transform(Map<Integer, BitSet> transition, SafraNode elem, boolean fresh,
+	private static Optional<SafraNode> transform(ImageComputer images, int character, SafraNode elem, boolean fresh,
 												 BitSet initNames, BitSet realNames, BitSet seen, BitSet finals) {
 		//Unmark
 		boolean mark = false;
 
+		//Construction parts are leased from the thread's arena, since create copies them
+		NodeArena arena = NodeArena.current();
+
 		//Setup the new label
-		BitSet newLabel = new BitSet(elem.getLabel().length());
+		BitSet newLabel = arena.bitset();
 
 		//A (possible) new child node
 		Optional<SafraNode> newNode = Optional.empty();
@@ -56,17 +60,14 @@ public class MonopassTransformer implements SafraTransition {
 		if (!fresh) {
 
 			//Update
-			//For each state in the label, run it past the transition system
-			for (int i = oldLabel.nextSetBit(0); i >= 0; i = oldLabel.nextSetBit(i + 1)) {
-				//For each state, update it with the transition set
-				newLabel.or(transition.getOrDefault(i, new BitSet()));
-			}
+			//Run every state in the label past the transition system
+			images.image(character, oldLabel, newLabel);
 
 			//Create
 			//If the labels intersect
 			if (newLabel.intersects(finals)) {
 				//Intersect the bitsets
-				BitSet subLabel = new BitSet(finals.size());
+				BitSet subLabel = arena.bitset();
 				subLabel.or(newLabel);
 				subLabel.and(finals);
 
@@ -74,7 +75,8 @@ public class MonopassTransformer implements SafraTransition {
 				int name = initNames.nextClearBit(0);
 
 				//Create the new node
-				newNode = Optional.of(SafraNode.create(name + 1, subLabel, true, new ArrayList<SafraNode>()));
+				newNode = Optional.of(SafraNode.create(name + 1, subLabel, true, Collections.emptyList()));
+				arena.recycle(subLabel);
 
 				//Update both nametrackers
 				initNames.set(name);
@@ -89,8 +91,11 @@ public class MonopassTransformer implements SafraTransition {
 
 		//kill empty
 		if (newLabel.isEmpty()) {
-			//Note that this node has been deleted
+			//Note that this node, its children and its new child have been deleted
 			realNames.clear(elem.getName()-1);
+			deleteNodes(elem.getSubnodes(), realNames);
+			newNode.ifPresent(nn -> realNames.clear(nn.getName()-1));
+			arena.recycle(newLabel);
 			//Go away
 			return Optional.empty();
 		}
@@ -103,24 +108,22 @@ public class MonopassTransformer implements SafraTransition {
 		int pre = seen.cardinality();
 
 		//New children nodes go here
-		ArrayList<SafraNode> outChild = new ArrayList<>(elem.getSubnodes().size() + newNode.map(n->1).orElse(0));
+		ArrayList<SafraNode> outChild = arena.list();
 		//traverse children
 		List<SafraNode> nodes = elem.getSubnodes();
 		for (int i = 0; i < nodes.size(); i++) {
-			transform(transition, nodes.get(i), false, initNames, realNames, seen, finals).ifPresent(outChild::add);
+			transform(images, character, nodes.get(i), false, initNames, realNames, seen, finals).ifPresent(outChild::add);
 		}
 
 		//If we're adding a new node, then add it at the rightmost position and recurse
-		newNode.flatMap(nn -> transform(transition, nn, true, initNames, realNames, seen, finals)).ifPresent(outChild::add);
+		newNode.flatMap(nn -> transform(images, character, nn, true, initNames, realNames, seen, finals)).ifPresent(outChild::add);
 
 		//Terminal cardinality
 		int post = seen.cardinality();
 
 
 		//add current label to seen
-		newLabel.flip(0, newLabel.size());
-		seen.and(newLabel);
-		newLabel.flip(0, newLabel.size());
+		seen.andNot(newLabel);
 
 		//Since children subset newLabel, if |children| = |newLabel| then children=newlabel
 		if (pre - post == newLabel.cardinality()) {
@@ -128,15 +131,22 @@ public class MonopassTransformer implements SafraTransition {
 			deleteNodes(outChild, realNames);
 
 			//Simplified result
-			return Optional.of(SafraNode.create(elem.getName(), newLabel, true, new ArrayList<>()));
+			SafraNode simplified = SafraNode.create(elem.getName(), newLabel, true, Collections.emptyList());
+			arena.recycle(newLabel);
+			arena.recycle(outChild);
+			return Optional.of(simplified);
 		}
 
-		return Optional.of(SafraNode.create(elem.getName(), newLabel, mark, outChild));
+		SafraNode result = SafraNode.create(elem.getName(), newLabel, mark, outChild);
+		arena.recycle(newLabel);
+		arena.recycle(outChild);
+		return Optional.of(result);
 	}
 
 
 	/**
-	 * Safra transition function
+	 * Safra transition function. Scratch sets are leased from the thread's NodeArena, and given back by
+	 * its next reset.
 	 * @param am The Automata to build a tree for
 	 * @param source The tree to build off of
 	 * @param character The letter to transition under
@@ -145,7 +155,8 @@ public class MonopassTransformer implements SafraTransition {
 	@Override
 	public SafraTree transition(Automata am, SafraTree source, int character) {
 		//The set of names as if the delete hasn't happened yet, see transform source
-		BitSet fakeNames = new BitSet(2*am.nStates);
+		NodeArena arena = NodeArena.current();
+		BitSet fakeNames = arena.scratch();
 		fakeNames.or(source.getUsedNames());
 
 		//The real set of new names
@@ -153,12 +164,12 @@ public class MonopassTransformer implements SafraTransition {
 		newNames.or(source.getUsedNames());
 
 		//The states that have been seen in labels sweeping l-to-r
-		BitSet seen = new BitSet(am.nStates);
+		BitSet seen = arena.scratch();
 		seen.flip(0,am.nStates); //seen is inverted
 
 		//If the node exists, do the transform
 		Optional<SafraNode> result = source.getNode().flatMap(node ->
-				transform(am.ts.under(character), node, false, fakeNames, newNames, seen, am.finals));
+				transform(am.images, character, node, false, fakeNames, newNames, seen, am.finals));
 
 
 		return new SafraTree(result, newNames);
@@ -27,8 +27,6 @@ public class MultipassTransformer implements SafraTransition {
 		if (!iTree.getNode().isPresent())
 			return iTree;
 
-		//The set of transitions in the Buchi automata
-		Map<Integer, BitSet> transition = automata.ts.under(character);
 		//Final transitions in the automata
 		BitSet finals = automata.finals;
 
@@ -43,7 +41,7 @@ public class MultipassTransformer implements SafraTransition {
 
 		//Standard Safra progression
 		SafraNode um = unmark(tree);
-		SafraNode up = update(um, transition);
+		SafraNode up = update(um, automata.images, character);
 		SafraNode cr = create(up, newUsed, finals);
 		SafraNode hm = hmerge(cr, new BitSet(tree.getLabel().size()));
 		Optional<SafraNode> pr = prune(hm, newUsed);
@@ -63,19 +61,18 @@ public class MultipassTransformer implements SafraTransition {
 	/**
 	 * Update all labels based on the transition function
 	 * @param source The source tree
-	 * @param transition The transition function
+	 * @param images The image computer of the transition system
+	 * @param character The letter to transition under
 	 * @return An updated tree
 	 */
-	private SafraNode update(SafraNode source, Map<Integer, BitSet> transition) {
+	private SafraNode update(SafraNode source, ImageComputer images, int character) {
 		BitSet oldLabel = source.getLabel();
 
 		BitSet label = new BitSet(oldLabel.size());
-		for (int i = oldLabel.nextSetBit(0); i >= 0; i = oldLabel.nextSetBit(i + 1)) {
-			label.or(transition.getOrDefault(i, new BitSet()));
-		}
+		images.image(character, oldLabel, label);
 
 		return SafraNode.create(source.getName(), label, source.isMark(), source.getSubnodes().stream()
-				.map(node -> this.update(node, transition)).collect(Collectors.toList()));
+				.map(node -> this.update(node, images, character)).collect(Collectors.toList()));
 	}
 
 	/**
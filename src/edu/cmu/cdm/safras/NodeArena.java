@@ -0,0 +1,167 @@
+package edu.cmu.cdm.safras;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-thread pools of the mutable parts of Safra nodes under construction: labels and child lists.
+ *
+ * Canonical nodes are shared between trees and never recycled, but SafraNode.create copies what it is
+ * given, so the label and child list a transformer builds a node from can be reused as soon as create
+ * returns. Objects leased with scratch are also reclaimed in bulk by reset, which explorers call after
+ * every expanded tree. Each thread has its own arena, so arenas need no locking and are safe to use from
+ * a parallel explorer.
+ */
+public final class NodeArena {
+	/** The default number of pooled objects of each kind per thread */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/** The capacity of arenas created from now on */
+	private static volatile int capacity = DEFAULT_CAPACITY;
+
+	private static final ThreadLocal<NodeArena> arenas = ThreadLocal.withInitial(() -> new NodeArena(capacity));
+
+	/** Leases served from a pool, and leases that had to allocate, over all threads */
+	private static final LongAdder reuses = new LongAdder(), misses = new LongAdder();
+
+	/** The number of pooled objects of each kind */
+	private final int limit;
+
+	private final BitSet[] bitsets;
+	private int nBitsets = 0;
+
+	private final ArrayList<?>[] lists;
+	private int nLists = 0;
+
+	/** The bitsets leased as scratch since the last reset */
+	private final BitSet[] scratch;
+	private int nScratch = 0;
+
+	private NodeArena(int limit) {
+		this.limit = limit;
+		this.bitsets = new BitSet[limit];
+		this.lists = new ArrayList<?>[limit];
+		this.scratch = new BitSet[limit];
+	}
+
+	/**
+	 * @return The arena of the current thread
+	 */
+	public static NodeArena current() {
+		return arenas.get();
+	}
+
+	/**
+	 * Set the number of pooled objects of each kind for arenas created from now on. 0 turns pooling off.
+	 * @param capacity The capacity
+	 */
+	public static void setCapacity(int capacity) {
+		NodeArena.capacity = capacity;
+	}
+
+	/**
+	 * @return The number of pooled objects of each kind for new arenas
+	 */
+	public static int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Lease an empty bitset, to be given back with recycle
+	 * @return The bitset
+	 */
+	public BitSet bitset() {
+		if (nBitsets > 0) {
+			reuses.increment();
+			return bitsets[--nBitsets];
+		}
+		misses.increment();
+		return new BitSet();
+	}
+
+	/**
+	 * Lease an empty bitset that is given back by the next reset. Once capacity scratch bitsets are
+	 * outstanding, new ones are left to the garbage collector.
+	 * @return The bitset
+	 */
+	public BitSet scratch() {
+		if (nScratch == limit) {
+			misses.increment();
+			return new BitSet();
+		}
+		BitSet bs = bitset();
+		scratch[nScratch++] = bs;
+		return bs;
+	}
+
+	/**
+	 * Lease an empty child list, to be given back with recycle
+	 * @return The list
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<SafraNode> list() {
+		if (nLists > 0) {
+			reuses.increment();
+			return (ArrayList<SafraNode>) lists[--nLists];
+		}
+		misses.increment();
+		return new ArrayList<>();
+	}
+
+	/**
+	 * Give back a bitset. It must no longer be used by the caller.
+	 * @param bs The bitset
+	 */
+	public void recycle(BitSet bs) {
+		if (nBitsets < limit) {
+			bs.clear();
+			bitsets[nBitsets++] = bs;
+		}
+	}
+
+	/**
+	 * Give back a child list. It must no longer be used by the caller.
+	 * @param list The list
+	 */
+	public void recycle(ArrayList<SafraNode> list) {
+		if (nLists < limit) {
+			list.clear();
+			lists[nLists++] = list;
+		}
+	}
+
+	/**
+	 * Give back every scratch bitset leased since the last reset
+	 */
+	public void reset() {
+		for (int i = 0; i < nScratch; i++) {
+			recycle(scratch[i]);
+			scratch[i] = null;
+		}
+		nScratch = 0;
+	}
+
+	public static long getReuses() {
+		return reuses.sum();
+	}
+
+	public static long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return The fraction of leases served from a pool
+	 */
+	public static double reuseRate() {
+		long r = reuses.sum(), m = misses.sum();
+		return r + m == 0 ? 0 : (double) r / (r + m);
+	}
+
+	/**
+	 * @return A summary of the reuse counters
+	 */
+	public static String stats() {
+		return "arena reuses: " + getReuses() + " misses: " + getMisses() + " reuse rate: " + reuseRate();
+	}
+}
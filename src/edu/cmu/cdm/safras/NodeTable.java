@@ -0,0 +1,181 @@
+package edu.cmu.cdm.safras;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Hash-consing table for Safra nodes.
+ *
+ * Holds every canonical node weakly, so a node stays canonical for as long as some tree refers to it
+ * and is collected normally afterwards. The table is split into independently locked segments so that
+ * several explorer threads can create nodes at once.
+ */
+class NodeTable {
+	/** The number of segments, must be a power of two */
+	private static final int SEGMENTS = 64;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	NodeTable() {
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment();
+	}
+
+	/**
+	 * Find the canonical node with the given contents, creating it if there is none
+	 * @param name The name of the node
+	 * @param label The node's label
+	 * @param mark If the node is marked
+	 * @param subnodes The (canonical) children of the node
+	 * @param hash The structural hash of the node
+	 * @return The canonical node
+	 */
+	SafraNode intern(int name, BitSet label, boolean mark, List<SafraNode> subnodes, int hash) {
+		Segment segment = segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+		synchronized (segment) {
+			return segment.intern(name, label, mark, subnodes, hash);
+		}
+	}
+
+	/**
+	 * Find the canonical node with the given contents, creating it if there is none
+	 * @param name The name of the node
+	 * @param label The node's label
+	 * @param mark If the node is marked
+	 * @param subnodes Holds the (canonical) children of the node
+	 * @param from The index of the first child in subnodes
+	 * @param to The index after the last child in subnodes
+	 * @param hash The structural hash of the node
+	 * @return The canonical node
+	 */
+	SafraNode intern(int name, BitSet label, boolean mark, SafraNode[] subnodes, int from, int to, int hash) {
+		Segment segment = segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+		synchronized (segment) {
+			return segment.intern(name, label, mark, subnodes, from, to, hash);
+		}
+	}
+
+	/**
+	 * @return The number of canonical nodes currently in the table, including ones awaiting cleanup
+	 */
+	int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * A weak reference to a canonical node, chained within a bucket
+	 */
+	private static final class Entry extends WeakReference<SafraNode> {
+		final int hash;
+		Entry next;
+
+		Entry(SafraNode node, int hash, ReferenceQueue<SafraNode> queue, Entry next) {
+			super(node, queue);
+			this.hash = hash;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * A chained hash table over part of the hash space
+	 */
+	private static final class Segment {
+		private Entry[] buckets = new Entry[16];
+		private int size = 0;
+		private final ReferenceQueue<SafraNode> queue = new ReferenceQueue<>();
+
+		SafraNode intern(int name, BitSet label, boolean mark, List<SafraNode> subnodes, int hash) {
+			expunge();
+
+			int idx = spread(hash) & (buckets.length - 1);
+			for (Entry e = buckets[idx]; e != null; e = e.next) {
+				if (e.hash != hash) continue;
+				SafraNode node = e.get();
+				if (node != null && node.matches(name, label, mark, subnodes))
+					return node;
+			}
+
+			return insert(new SafraNode(name, label, mark, subnodes.toArray(new SafraNode[subnodes.size()]), 0,
+					subnodes.size(), hash), idx);
+		}
+
+		SafraNode intern(int name, BitSet label, boolean mark, SafraNode[] subnodes, int from, int to, int hash) {
+			expunge();
+
+			int idx = spread(hash) & (buckets.length - 1);
+			for (Entry e = buckets[idx]; e != null; e = e.next) {
+				if (e.hash != hash) continue;
+				SafraNode node = e.get();
+				if (node != null && node.matches(name, label, mark, subnodes, from, to))
+					return node;
+			}
+
+			return insert(new SafraNode(name, label, mark, subnodes, from, to, hash), idx);
+		}
+
+		/**
+		 * Add a new canonical node
+		 * @param node The node
+		 * @param idx Its bucket
+		 * @return The node
+		 */
+		private SafraNode insert(SafraNode node, int idx) {
+			buckets[idx] = new Entry(node, node.hashCode(), queue, buckets[idx]);
+			if (++size > buckets.length - (buckets.length >>> 2))
+				resize();
+			return node;
+		}
+
+		/**
+		 * Remove the entries of nodes that have been collected
+		 */
+		private void expunge() {
+			for (Object ref; (ref = queue.poll()) != null; ) {
+				Entry dead = (Entry) ref;
+				int idx = spread(dead.hash) & (buckets.length - 1);
+				Entry prev = null;
+				for (Entry e = buckets[idx]; e != null; prev = e, e = e.next) {
+					if (e != dead) continue;
+					if (prev == null)
+						buckets[idx] = e.next;
+					else
+						prev.next = e.next;
+					size--;
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Double the number of buckets
+		 */
+		private void resize() {
+			Entry[] old = buckets;
+			buckets = new Entry[old.length * 2];
+			for (Entry head : old) {
+				for (Entry e = head; e != null; ) {
+					Entry next = e.next;
+					int idx = spread(e.hash) & (buckets.length - 1);
+					e.next = buckets[idx];
+					buckets[idx] = e;
+					e = next;
+				}
+			}
+		}
+
+		/**
+		 * The hash bits used for the bucket index. The low bits already chose the segment.
+		 */
+		private static int spread(int hash) {
+			return (hash ^ (hash >>> 16)) >>> 6;
+		}
+	}
+}
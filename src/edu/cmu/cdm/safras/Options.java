@@ -0,0 +1,196 @@
+package edu.cmu.cdm.safras;
+
+/**
+ * Command line options for Main
+ */
+public class Options {
+	/** The input automata file */
+	String input;
+	/** True iff the input is a directory or manifest of automata files to determinize together */
+	boolean batch = false;
+	/** The number of files determinized at once in batch mode */
+	int batchThreads = Runtime.getRuntime().availableProcessors();
+	/** True iff unreachable and non-productive states are removed before determinization */
+	boolean trim = false;
+	/** True iff states that simulate each other are merged before determinization */
+	boolean simulation = false;
+	/** True iff transitions to simulated states are pruned before determinization */
+	boolean prune = false;
+	/** The transition function: auto, monopass, scratch, small, wide, multipass or piterman */
+	String transformer = "auto";
+	/** True iff only the emptiness of the language should be checked */
+	boolean emptiness = false;
+	/** True iff the state space should be explored in parallel */
+	boolean parallel = false;
+	/** The number of threads used by the parallel explorer */
+	int threads = Runtime.getRuntime().availableProcessors();
+	/** The number of worker processes of distributed exploration, 0 to explore in this JVM */
+	int workers = 0;
+	/** The maximum heap of each worker process, in megabytes, or 0 for the JVM's default */
+	long workerHeap = 0;
+	/** True iff both explorers should be run and their times compared */
+	boolean compare = false;
+	/** True iff explored states should be kept encoded in a StateStore */
+	boolean compact = false;
+	/** The file backing the state store, or null for direct buffers */
+	String store = null;
+	/** The directory for the working files of external exploration, or null to explore in memory */
+	String external = null;
+	/** The memory budget of external exploration, in bytes */
+	long memory = ExternalExplorer.DEFAULT_BUDGET;
+	/** The checkpoint log, or null for none */
+	String checkpoint = null;
+	/** The time between checkpoints, in milliseconds */
+	long checkpointInterval = CheckpointExplorer.DEFAULT_INTERVAL;
+	/** True iff the run should resume from the checkpoint log */
+	boolean resume = false;
+	/** The number of cached label images, 0 for none */
+	int imageCache = ImageComputer.DEFAULT_CAPACITY;
+	/** The memory budget for image tables, in bytes */
+	long tableBudget = ImageComputer.DEFAULT_TABLE_BUDGET;
+	/** True iff equivalent states of the result should be merged */
+	boolean minimize = false;
+	/** True iff image cache statistics should be printed */
+	boolean imageStats = false;
+	/** True iff letters that act the same on a tree should share one transition */
+	boolean letterClasses = true;
+	/** The number of pooled labels and child lists per thread, 0 for none */
+	int arena = NodeArena.DEFAULT_CAPACITY;
+	/** True iff arena statistics should be printed */
+	boolean arenaStats = false;
+	/** The file metrics are written to as JSON, or null for none */
+	String metrics = null;
+	/** The number of seconds between progress reports, 0 for none */
+	double progress = 0;
+	/** The file the result is streamed to, or null for none. With --minimize the quotient is written at the end */
+	String output = null;
+	/** The output format, hoa or binary, or null to go by the file name */
+	String format = null;
+	/** True iff the successor table is only written out, not kept */
+	boolean discard = false;
+
+	/**
+	 * Parse the command line
+	 * @param args The arguments passed to main
+	 * @return The options
+	 */
+	public static Options parse(String[] args) {
+		Options options = new Options();
+		for (String arg : args) {
+			if (arg.equals("--batch")) {
+				options.batch = true;
+			} else if (arg.startsWith("--batch=")) {
+				options.batch = true;
+				options.batchThreads = Integer.parseInt(value(arg));
+			} else if (arg.equals("--reduce")) {
+				options.trim = options.simulation = options.prune = true;
+			} else if (arg.startsWith("--reduce=")) {
+				for (String step : value(arg).split(",")) {
+					switch (step) {
+						case "trim":
+							options.trim = true;
+							break;
+						case "simulation":
+							options.simulation = true;
+							break;
+						case "prune":
+							options.prune = true;
+							break;
+						default:
+							throw new IllegalArgumentException("Unknown reduction " + step);
+					}
+				}
+			} else if (arg.startsWith("--transformer=")) {
+				options.transformer = value(arg);
+			} else if (arg.equals("--emptiness")) {
+				options.emptiness = true;
+			} else if (arg.equals("--parallel")) {
+				options.parallel = true;
+			} else if (arg.startsWith("--threads=")) {
+				options.threads = Integer.parseInt(value(arg));
+			} else if (arg.startsWith("--workers=")) {
+				options.workers = Integer.parseInt(value(arg));
+			} else if (arg.startsWith("--worker-heap=")) {
+				options.workerHeap = Long.parseLong(value(arg));
+			} else if (arg.equals("--compare")) {
+				options.compare = true;
+			} else if (arg.equals("--compact")) {
+				options.compact = true;
+			} else if (arg.startsWith("--store=")) {
+				options.compact = true;
+				options.store = value(arg);
+			} else if (arg.startsWith("--external=")) {
+				options.external = value(arg);
+			} else if (arg.startsWith("--memory=")) {
+				options.memory = Long.parseLong(value(arg)) << 20;
+			} else if (arg.startsWith("--checkpoint=")) {
+				options.checkpoint = value(arg);
+			} else if (arg.startsWith("--checkpoint-interval=")) {
+				options.checkpointInterval = (long) (Double.parseDouble(value(arg)) * 1000);
+			} else if (arg.equals("--resume")) {
+				options.resume = true;
+			} else if (arg.startsWith("--image-cache=")) {
+				options.imageCache = Integer.parseInt(value(arg));
+			} else if (arg.startsWith("--table-budget=")) {
+				options.tableBudget = Long.parseLong(value(arg)) << 20;
+			} else if (arg.equals("--minimize")) {
+				options.minimize = true;
+			} else if (arg.equals("--image-stats")) {
+				options.imageStats = true;
+			} else if (arg.equals("--no-letter-classes")) {
+				options.letterClasses = false;
+			} else if (arg.startsWith("--arena=")) {
+				options.arena = Integer.parseInt(value(arg));
+			} else if (arg.equals("--arena-stats")) {
+				options.arenaStats = true;
+			} else if (arg.startsWith("--metrics=")) {
+				options.metrics = value(arg);
+			} else if (arg.startsWith("--progress=")) {
+				options.progress = Double.parseDouble(value(arg));
+			} else if (arg.startsWith("--output=")) {
+				options.output = value(arg);
+			} else if (arg.startsWith("--format=")) {
+				options.format = value(arg);
+			} else if (arg.equals("--discard")) {
+				options.discard = true;
+			} else if (arg.startsWith("--")) {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			} else {
+				options.input = arg;
+			}
+		}
+		if (options.input == null)
+			throw new IllegalArgumentException("No input file given");
+		if (options.batch && (options.checkpoint != null || options.external != null || options.compact
+				|| options.parallel || options.workers > 0 || options.compare || options.metrics != null
+				|| options.progress > 0 || options.output != null))
+			throw new IllegalArgumentException("Batch mode explores each file sequentially in memory and takes no "
+					+ "explorer, metrics, progress or output options");
+		//Main picks one explorer, so asking for several would silently drop all but one
+		int explorers = (options.checkpoint != null ? 1 : 0) + (options.external != null ? 1 : 0)
+				+ (options.compact ? 1 : 0) + (options.parallel ? 1 : 0) + (options.workers > 0 ? 1 : 0);
+		if (explorers > 1)
+			throw new IllegalArgumentException("Only one of --checkpoint, --external, --compact, --parallel and --workers "
+					+ "can be given");
+		//The explorer being compared is reported as the sequential or the parallel one
+		if (options.compare && explorers > (options.parallel ? 1 : 0))
+			throw new IllegalArgumentException("--compare runs the sequential and parallel explorers, not --checkpoint, "
+					+ "--external, --compact or --workers");
+		if (options.discard && (options.output == null || options.minimize || options.compare))
+			throw new IllegalArgumentException("--discard needs an --output and no --minimize or --compare");
+		if (options.transformer.equals("piterman") && (options.emptiness || options.minimize))
+			throw new IllegalArgumentException("--emptiness and --minimize use Rabin pairs, which compact trees do not have");
+		if (options.resume && options.checkpoint == null)
+			throw new IllegalArgumentException("--resume needs a --checkpoint log");
+		return options;
+	}
+
+	/**
+	 * Get the value of an option of the form --name=value
+	 * @param arg The argument
+	 * @return The value
+	 */
+	private static String value(String arg) {
+		return arg.substring(arg.indexOf('=') + 1);
+	}
+}
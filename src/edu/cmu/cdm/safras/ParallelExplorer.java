@@ -0,0 +1,79 @@
+package edu.cmu.cdm.safras;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Level-synchronous parallel BFS exploration.
+ *
+ * Each BFS level is expanded on a ForkJoinPool, and successors that were found in earlier levels are
+ * looked up concurrently in the state registry. The new states of a level are then registered in a
+ * short sequential pass that walks the successors in (parent, letter) order, so the representatives and the
+ * numbering are the same as the ones SequentialExplorer produces.
+ */
+public class ParallelExplorer extends Explorer {
+	/** The number of worker threads */
+	private final int parallelism;
+
+	/**
+	 * Create a new parallel explorer
+	 * @param tform The transition function. Must be safe to call from several threads at once.
+	 * @param parallelism The number of worker threads
+	 */
+	public ParallelExplorer(SafraTransition tform, int parallelism) {
+		super(tform);
+		this.parallelism = parallelism;
+	}
+
+	@Override
+	public RabinAutomaton explore(Automata automata, SafraTree initial) {
+		int alph = automata.alphsize;
+
+		//The states seen so far. Only read while a level is being expanded.
+		StateRegistry registry = new StateRegistry();
+		successor(initial, registry.register(initial));
+
+		//succ[id * alph + i] is the successor of state id under letter i + 1
+		int[] succ = new int[1024 * alph];
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			//The current level is every state from start to the end of the registry
+			for (int start = 0; start < registry.size(); ) {
+				int from = start, to = registry.size();
+				SafraTree[][] trees = new SafraTree[to - from][];
+				int[] found = new int[(to - from) * alph];
+
+				//Expand the whole level in parallel, looking up successors from earlier levels
+				pool.submit(() -> IntStream.range(from, to).parallel().forEach(id -> {
+					SafraTree[] out = expand(automata, registry.get(id));
+					for (int i = 0; i < alph; i++)
+						found[(id - from) * alph + i] = registry.find(out[i]);
+					trees[id - from] = out;
+				})).join();
+
+				//Register the new trees in the order a FIFO frontier would have seen them
+				succ = ensureCapacity(succ, to * alph);
+				for (int id = from; id < to; id++) {
+					for (int i = 0; i < alph; i++) {
+						int tgt = found[(id - from) * alph + i];
+						if (tgt < 0) {
+							tgt = registry.register(trees[id - from][i]);
+							successor(trees[id - from][i], tgt);
+							if (tgt < 0) tgt = -tgt - 1;
+						} else {
+							successor(trees[id - from][i], -tgt - 1);
+						}
+						succ[id * alph + i] = tgt;
+					}
+					expanded(id, registry.get(id), succ, id * alph);
+				}
+				progress(to, registry.size());
+				start = to;
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return new RabinAutomaton(registry.states(), alph, succ);
+	}
+}
@@ -0,0 +1,276 @@
+package edu.cmu.cdm.safras;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+/**
+ * Piterman's compact Safra trees, giving a deterministic parity automata with edge priorities.
+ *
+ * The tree is updated as in MonopassTransformer, but names are kept dense and ordered by age: a tree with
+ * k nodes is named 1 to k, with older nodes having lower names, and marks are not kept. New children are
+ * named above every existing node while the step runs, and the survivors are renamed in order of their
+ * old names afterwards. Trees therefore only differ in their shape and labels, not in how names were
+ * recycled, which gives far fewer states than the 2n name pool of classic trees.
+ *
+ * Acceptance moves from the states to the transitions. If e is the lowest name of a node removed by a
+ * step and f the lowest name of a node whose children covered its label, the step has priority
+ * min(2e - 1, 2f), and 2n + 1 if neither happened. A run is accepting iff the lowest priority it sees
+ * infinitely often is even: the nodes below that name are then eventually stable, so the node named f
+ * keeps its identity and turns green infinitely often.
+ */
+public class PitermanTransformer implements SafraTransition {
+
+	/**
+	 * The priorities of the steps a thread took from the last tree it transformed
+	 */
+	private static final class Last {
+		SafraTree source;
+		/** The priority of the step under letter i + 1 at index i, -1 if it was not taken */
+		int[] priorities;
+		/** Receives the priority of a step */
+		final int[] priority = new int[1];
+	}
+
+	/** The last steps of each thread, so that an explorer's listener can get their priorities for free */
+	private final ThreadLocal<Last> last = ThreadLocal.withInitial(Last::new);
+
+	/**
+	 * A node being built by a step, named by its old name or a temporary one above them
+	 */
+	private static final class Draft {
+		final int name;
+		final BitSet label;
+		final List<Draft> children;
+
+		Draft(int name, BitSet label, List<Draft> children) {
+			this.name = name;
+			this.label = label;
+			this.children = children;
+		}
+	}
+
+	/**
+	 * The state of one step
+	 */
+	private static final class Step {
+		final ImageComputer images;
+		final int character;
+		final BitSet finals;
+		/** The states not seen yet sweeping left to right */
+		final BitSet seen;
+		/** The next temporary name */
+		int fresh;
+		/** The lowest removed and green old names, Integer.MAX_VALUE if none */
+		int removed = Integer.MAX_VALUE, green = Integer.MAX_VALUE;
+		/** The number of old nodes */
+		final int old;
+
+		Step(Automata am, int character, int old) {
+			this.images = am.images;
+			this.character = character;
+			this.finals = am.finals;
+			this.seen = new BitSet(am.nStates);
+			seen.set(0, am.nStates);
+			this.old = old;
+			this.fresh = old + 1;
+		}
+
+		/**
+		 * Note the removal of a node and its subtree, of which it has the lowest name
+		 */
+		void remove(int name) {
+			if (name <= old)
+				removed = Math.min(removed, name);
+		}
+	}
+
+	/**
+	 * Build the initial compact tree of an automata, as Main.initialTree without marks
+	 * @param source The Buechi automata
+	 * @return The initial state of the parity automata
+	 */
+	public static SafraTree initialTree(Automata source) {
+		BitSet used = new BitSet();
+		List<SafraNode> children = Collections.emptyList();
+		BitSet accepting = (BitSet) source.initial.clone();
+		accepting.and(source.finals);
+		if (!accepting.isEmpty() && !accepting.equals(source.initial)) {
+			children = Collections.singletonList(SafraNode.create(2, accepting, false, Collections.emptyList()));
+			used.set(1);
+		}
+		used.set(0);
+		return new SafraTree(Optional.of(SafraNode.create(1, source.initial, false, children)), used);
+	}
+
+	/**
+	 * Transform a node
+	 * @return The new node, or null if it was removed
+	 */
+	private static Draft transform(Step step, SafraNode elem) {
+		BitSet newLabel = new BitSet();
+		step.images.image(step.character, elem.getLabel(), newLabel);
+
+		//Create
+		BitSet subLabel = null;
+		int newName = 0;
+		if (newLabel.intersects(step.finals)) {
+			subLabel = (BitSet) newLabel.clone();
+			subLabel.and(step.finals);
+			newName = step.fresh++;
+		}
+
+		//Horizontal merge
+		newLabel.and(step.seen);
+
+		//kill empty, the subtree's names are all above this one
+		if (newLabel.isEmpty()) {
+			step.remove(elem.getName());
+			return null;
+		}
+
+		int pre = step.seen.cardinality();
+
+		List<Draft> children = new ArrayList<>();
+		List<SafraNode> nodes = elem.getSubnodes();
+		for (int i = 0; i < nodes.size(); i++) {
+			Draft child = transform(step, nodes.get(i));
+			if (child != null)
+				children.add(child);
+		}
+
+		if (newName != 0) {
+			subLabel.and(step.seen);
+			if (!subLabel.isEmpty()) {
+				step.seen.andNot(subLabel);
+				children.add(new Draft(newName, subLabel, Collections.emptyList()));
+			}
+		}
+
+		int post = step.seen.cardinality();
+		step.seen.andNot(newLabel);
+
+		//Children cover the label, so they go away and this node is green
+		if (pre - post == newLabel.cardinality()) {
+			for (Draft child : children)
+				step.remove(child.name);
+			if (elem.getName() <= step.old)
+				step.green = Math.min(step.green, elem.getName());
+			return new Draft(elem.getName(), newLabel, Collections.emptyList());
+		}
+		return new Draft(elem.getName(), newLabel, children);
+	}
+
+	/**
+	 * Collect the names of a draft tree
+	 */
+	private static void names(Draft draft, BitSet names) {
+		names.set(draft.name);
+		for (Draft child : draft.children)
+			names(child, names);
+	}
+
+	/**
+	 * Build the canonical nodes of a draft, renaming every node to its rank among the surviving names
+	 */
+	private static SafraNode build(Draft draft, int[] rank) {
+		List<SafraNode> children = new ArrayList<>(draft.children.size());
+		for (Draft child : draft.children)
+			children.add(build(child, rank));
+		return SafraNode.create(rank[draft.name], draft.label, false, children);
+	}
+
+	/**
+	 * Run one step
+	 * @param am The automata
+	 * @param source The compact tree
+	 * @param character The letter
+	 * @param priority Receives the priority of the step at index 0, or null
+	 * @return The new compact tree
+	 */
+	private static SafraTree step(Automata am, SafraTree source, int character, int[] priority) {
+		if (!source.getNode().isPresent()) {
+			if (priority != null) priority[0] = 2 * am.nStates + 1;
+			return source;
+		}
+
+		Step step = new Step(am, character, source.getUsedNames().cardinality());
+		Draft root = transform(step, source.getNode().get());
+		if (priority != null) {
+			int e = step.removed == Integer.MAX_VALUE ? Integer.MAX_VALUE : 2 * step.removed - 1;
+			int f = step.green == Integer.MAX_VALUE ? Integer.MAX_VALUE : 2 * step.green;
+			priority[0] = Math.min(Math.min(e, f), 2 * am.nStates + 1);
+		}
+		if (root == null)
+			return new SafraTree(Optional.empty(), new BitSet());
+
+		//Compress the names, keeping their order
+		BitSet names = new BitSet(step.fresh);
+		names(root, names);
+		int[] rank = new int[step.fresh];
+		int count = 0;
+		for (int n = names.nextSetBit(0); n >= 0; n = names.nextSetBit(n + 1))
+			rank[n] = ++count;
+		BitSet used = new BitSet(count);
+		used.set(0, count);
+		return new SafraTree(Optional.of(build(root, rank)), used);
+	}
+
+	/**
+	 * Compact Safra transition function
+	 * @param am The Automata to build a tree for
+	 * @param source The compact tree to build off of, as built by initialTree or this function
+	 * @param character The letter to transition under
+	 * @return The new compact tree
+	 */
+	@Override
+	public SafraTree transition(Automata am, SafraTree source, int character) {
+		Last l = last.get();
+		if (!source.equals(l.source)) {
+			l.source = source;
+			if (l.priorities == null || l.priorities.length != am.alphsize)
+				l.priorities = new int[am.alphsize];
+			Arrays.fill(l.priorities, -1);
+		}
+		SafraTree result = step(am, source, character, l.priority);
+		l.priorities[character - 1] = l.priority[0];
+		return result;
+	}
+
+	/**
+	 * Get the priority of a transition. It is remembered if the calling thread just took it, as when an
+	 * explorer's listener is told about a state it expanded, and computed otherwise.
+	 * @param am The automata
+	 * @param source The compact tree
+	 * @param character The letter
+	 * @return The priority, from 1 to 2n + 1
+	 */
+	public int priority(Automata am, SafraTree source, int character) {
+		Last l = last.get();
+		if (source.equals(l.source) && l.priorities.length == am.alphsize && l.priorities[character - 1] >= 0)
+			return l.priorities[character - 1];
+		int[] priority = new int[1];
+		step(am, source, character, priority);
+		return priority[0];
+	}
+
+	/**
+	 * Compute the priorities of every transition of an explored parity automata, in parallel
+	 * @param automaton The automata explored with this transformer
+	 * @param am The Buechi automata
+	 * @return The priority of the transition of state s under letter i at s * alphsize + i - 1
+	 */
+	public int[] priorities(RabinAutomaton automaton, Automata am) {
+		int alph = automaton.getAlphsize();
+		int[] priorities = new int[automaton.size() * alph];
+		IntStream.range(0, automaton.size()).parallel().forEach(s -> {
+			for (int i = 1; i <= alph; i++)
+				priorities[s * alph + i - 1] = priority(am, automaton.getState(s), i);
+		});
+		return priorities;
+	}
+}
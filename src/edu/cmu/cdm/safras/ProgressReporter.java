@@ -0,0 +1,50 @@
+package edu.cmu.cdm.safras;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically prints the progress of a run from its Metrics, on a daemon thread.
+ */
+public class ProgressReporter implements AutoCloseable {
+	private final Metrics metrics;
+	private final PrintStream out;
+	private final ScheduledExecutorService timer;
+
+	/**
+	 * Start reporting
+	 * @param metrics The metrics of the run
+	 * @param periodMillis The time between reports
+	 * @param out The stream reports are printed to
+	 */
+	public ProgressReporter(Metrics metrics, long periodMillis, PrintStream out) {
+		this.metrics = metrics;
+		this.out = out;
+		this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "progress");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.scheduleAtFixedRate(this::report, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Print one report
+	 */
+	private void report() {
+		long states = metrics.states.get(), expanded = metrics.expanded.get();
+		out.printf("progress: %.1fs states: %d frontier: %d transitions: %d dedupe hit rate: %.3f heap: %d MB%n",
+				metrics.elapsed(), states, states - expanded, metrics.transitions.sum(), metrics.dedupeHitRate(),
+				metrics.sampleHeap() >> 20);
+	}
+
+	/**
+	 * Stop reporting
+	 */
+	@Override
+	public void close() {
+		timer.shutdownNow();
+	}
+}
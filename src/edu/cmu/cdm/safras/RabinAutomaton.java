@@ -0,0 +1,76 @@
+package edu.cmu.cdm.safras;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The explored Rabin automata.
+ *
+ * States are numbered densely from 0, which is the initial state. The transition function is a flat
+ * table where the successor of state s under letter l is at s * alphsize + (l - 1).
+ */
+public class RabinAutomaton {
+	/** The Safra tree of every state, indexed by state number */
+	private final List<SafraTree> states;
+	/** The alphabet size */
+	private final int alphsize;
+	/** The successor table */
+	private final int[] successors;
+
+	/**
+	 * Create an automata
+	 * @param states The Safra tree of every state, indexed by state number
+	 * @param alphsize The alphabet size
+	 * @param successors The successor table, with at least states.size() * alphsize entries. Trimmed if longer.
+	 * Empty if the explorer did not keep it, in which case only the states can be read.
+	 */
+	public RabinAutomaton(List<SafraTree> states, int alphsize, int[] successors) {
+		int n = states.size() * alphsize;
+		this.states = states;
+		this.alphsize = alphsize;
+		this.successors = successors.length == n || successors.length == 0 ? successors : Arrays.copyOf(successors, n);
+	}
+
+	/**
+	 * @return The number of states
+	 */
+	public int size() {
+		return states.size();
+	}
+
+	public int getAlphsize() {
+		return alphsize;
+	}
+
+	/**
+	 * Get the successor of a state
+	 * @param state The state number
+	 * @param letter The letter, from 1 to the alphabet size
+	 * @return The number of the successor
+	 */
+	public int successor(int state, int letter) {
+		return successors[state * alphsize + letter - 1];
+	}
+
+	/**
+	 * @param state The state number
+	 * @return The Safra tree of the state
+	 */
+	public SafraTree getState(int state) {
+		return states.get(state);
+	}
+
+	/**
+	 * @return The Safra trees of all states, indexed by state number
+	 */
+	public List<SafraTree> getStates() {
+		return states;
+	}
+
+	/**
+	 * @return The successor table. Not copied, do not modify.
+	 */
+	public int[] getSuccessors() {
+		return successors;
+	}
+}
@@ -0,0 +1,92 @@
+package edu.cmu.cdm.safras;
+
+import java.io.PrintStream;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Random Buechi automata in the Tabakov-Vardi model.
+ *
+ * For every letter, round(r * n) distinct transitions are drawn uniformly from all pairs of states, where
+ * r is the transition density. round(f * n) states, and at least one, are final, where f is the acceptance
+ * density. State 0 is the only initial state.
+ */
+public class RandomAutomata {
+
+	/**
+	 * Generate an automata
+	 * @param nStates The number of states
+	 * @param alphsize The alphabet size
+	 * @param transitionDensity The expected number of transitions per state and letter
+	 * @param acceptanceDensity The fraction of final states
+	 * @param seed The random seed
+	 * @return The automata
+	 */
+	public static Automata generate(int nStates, int alphsize, double transitionDensity, double acceptanceDensity,
+									long seed) {
+		Random random = new Random(seed);
+
+		int perLetter = (int) Math.min((long) nStates * nStates, Math.round(transitionDensity * nStates));
+		int count = perLetter * alphsize;
+		int[] from = new int[count], to = new int[count], under = new int[count];
+		int n = 0;
+		for (int letter = 1; letter <= alphsize; letter++) {
+			Set<Long> pairs = new HashSet<>();
+			while (pairs.size() < perLetter) {
+				int s = random.nextInt(nStates), t = random.nextInt(nStates);
+				if (pairs.add((long) s * nStates + t)) {
+					from[n] = s;
+					to[n] = t;
+					under[n++] = letter;
+				}
+			}
+		}
+
+		BitSet finals = new BitSet(nStates);
+		int nFinals = (int) Math.max(1, Math.min(nStates, Math.round(acceptanceDensity * nStates)));
+		while (finals.cardinality() < nFinals)
+			finals.set(random.nextInt(nStates));
+
+		BitSet initial = new BitSet(nStates);
+		initial.set(0);
+		return new Automata(nStates, initial, finals, alphsize,
+				new TransitionSystem(nStates, alphsize, from, to, under, count));
+	}
+
+	/**
+	 * Write an automata in the BUECHI text format
+	 * @param am The automata
+	 * @param out The stream to write to
+	 */
+	public static void write(Automata am, PrintStream out) {
+		out.println("BUECHI");
+		out.println(am.nStates);
+		out.println(am.alphsize);
+		out.println(am.ts.size());
+		am.ts.forEach((from, to, under) -> out.println((from + 1) + " - " + under + " - " + (to + 1)));
+		out.println(states(am.initial));
+		out.println(states(am.finals));
+	}
+
+	private static String states(BitSet set) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1))
+			sb.append(sb.length() == 0 ? "" : " ").append(i + 1);
+		return sb.toString();
+	}
+
+	/**
+	 * Print a random automata in the BUECHI text format
+	 * @param args The number of states, the alphabet size, the transition density, the acceptance density
+	 *             and the seed
+	 */
+	public static void main(String[] args) {
+		if (args.length != 5)
+			throw new IllegalArgumentException("Usage: RandomAutomata <states> <alphabet> <transition density> "
+					+ "<acceptance density> <seed>");
+		write(generate(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Double.parseDouble(args[2]),
+				Double.parseDouble(args[3]), Long.parseLong(args[4])), System.out);
+	}
+}
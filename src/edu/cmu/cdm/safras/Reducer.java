@@ -0,0 +1,270 @@
+package edu.cmu.cdm.safras;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Shrinks a Buechi automata before it is determinized, keeping its language.
+ *
+ * Three optional steps are run in order. Trimming removes the states that are unreachable or can never
+ * reach an accepting cycle. The simulation quotient merges states that directly simulate each other.
+ * Pruning removes every transition p -a-> q for which p also has p -a-> q' with q' strictly simulating q,
+ * and every initial state strictly simulated by another initial state. Each step records the size of the
+ * automata before and after it.
+ */
+public class Reducer {
+	/** Which steps to run */
+	private final boolean trim, quotient, prune;
+	/** One line per step run */
+	private final List<String> report = new ArrayList<>();
+
+	/**
+	 * Create a reducer
+	 * @param trim True to remove unreachable and non-productive states
+	 * @param quotient True to merge states that directly simulate each other
+	 * @param prune True to remove transitions to strictly simulated states
+	 */
+	public Reducer(boolean trim, boolean quotient, boolean prune) {
+		this.trim = trim;
+		this.quotient = quotient;
+		this.prune = prune;
+	}
+
+	/**
+	 * Reduce an automata
+	 * @param am The automata
+	 * @return An automata with the same language, and at most as many states and transitions
+	 */
+	public Automata reduce(Automata am) {
+		report.clear();
+		if (trim)
+			am = step("trim", am, trim(am));
+		if (quotient)
+			am = step("simulation quotient", am, quotient(am, simulation(am)));
+		if (prune) {
+			am = step("prune", am, prune(am, simulation(am)));
+			//Pruning can leave states that can no longer reach an accepting cycle
+			if (trim)
+				am = step("trim", am, trim(am));
+		}
+		return am;
+	}
+
+	/**
+	 * @return One line per step of the last reduction, with the sizes before and after it
+	 */
+	public List<String> getReport() {
+		return report;
+	}
+
+	private Automata step(String name, Automata before, Automata after) {
+		report.add(name + ": " + before.nStates + " states " + before.ts.size() + " transitions -> "
+				+ after.nStates + " states " + after.ts.size() + " transitions");
+		return after;
+	}
+
+	/**
+	 * The successors of every state under every letter
+	 * @return post[a - 1][p], the successors of p under a
+	 */
+	private static BitSet[][] post(Automata am) {
+		BitSet[][] post = new BitSet[am.alphsize][am.nStates];
+		for (BitSet[] row : post) {
+			for (int p = 0; p < row.length; p++)
+				row[p] = new BitSet(am.nStates);
+		}
+		am.ts.forEach((from, to, under) -> post[under - 1][from].set(to));
+		return post;
+	}
+
+	/**
+	 * Keep the states that are reachable from an initial state and can reach a final state on a cycle
+	 */
+	private static Automata trim(Automata am) {
+		int n = am.nStates;
+		List<List<Integer>> fwd = new ArrayList<>(), bwd = new ArrayList<>();
+		for (int p = 0; p < n; p++) {
+			fwd.add(new ArrayList<>());
+			bwd.add(new ArrayList<>());
+		}
+		am.ts.forEach((from, to, under) -> {
+			fwd.get(from).add(to);
+			bwd.get(to).add(from);
+		});
+
+		BitSet reachable = closure(am.initial, fwd);
+
+		//A final state is on a cycle iff it can reach itself in at least one step
+		BitSet good = new BitSet(n);
+		for (int f = am.finals.nextSetBit(0); f >= 0; f = am.finals.nextSetBit(f + 1)) {
+			if (!reachable.get(f)) continue;
+			BitSet from = new BitSet(n);
+			for (int q : fwd.get(f))
+				from.set(q);
+			if (closure(from, fwd).get(f))
+				good.set(f);
+		}
+		BitSet keep = closure(good, bwd);
+		keep.and(reachable);
+
+		int[] map = new int[n];
+		Arrays.fill(map, -1);
+		int m = 0;
+		for (int p = keep.nextSetBit(0); p >= 0; p = keep.nextSetBit(p + 1))
+			map[p] = m++;
+		return rebuild(am, m, map, null);
+	}
+
+	/**
+	 * The states reachable from a set of states, including them
+	 */
+	private static BitSet closure(BitSet from, List<List<Integer>> edges) {
+		BitSet seen = (BitSet) from.clone();
+		int[] queue = new int[edges.size()];
+		int head = 0, tail = 0;
+		for (int p = from.nextSetBit(0); p >= 0; p = from.nextSetBit(p + 1))
+			queue[tail++] = p;
+		while (head < tail) {
+			for (int q : edges.get(queue[head++])) {
+				if (!seen.get(q)) {
+					seen.set(q);
+					queue[tail++] = q;
+				}
+			}
+		}
+		return seen;
+	}
+
+	/**
+	 * Compute the direct simulation preorder, the largest relation where p <= q implies that q is final if p
+	 * is, and that every transition p -a-> p' is matched by some q -a-> q' with p' <= q'
+	 * @return sim[p], every q with p <= q
+	 */
+	static BitSet[] simulation(Automata am) {
+		int n = am.nStates;
+		BitSet[][] post = post(am);
+		BitSet[] sim = new BitSet[n];
+		for (int p = 0; p < n; p++) {
+			sim[p] = new BitSet(n);
+			sim[p].set(0, n);
+			if (am.finals.get(p))
+				sim[p].and(am.finals);
+		}
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int p = 0; p < n; p++) {
+				for (int q = sim[p].nextSetBit(0); q >= 0; q = sim[p].nextSetBit(q + 1)) {
+					if (!matches(post, sim, p, q)) {
+						sim[p].clear(q);
+						changed = true;
+					}
+				}
+			}
+		}
+		return sim;
+	}
+
+	/**
+	 * Check if every move of p is matched by a move of q into a state simulating the target
+	 */
+	private static boolean matches(BitSet[][] post, BitSet[] sim, int p, int q) {
+		for (BitSet[] letter : post) {
+			for (int p2 = letter[p].nextSetBit(0); p2 >= 0; p2 = letter[p].nextSetBit(p2 + 1)) {
+				if (!letter[q].intersects(sim[p2]))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Merge the classes of states that simulate each other
+	 */
+	private static Automata quotient(Automata am, BitSet[] sim) {
+		int n = am.nStates;
+		int[] map = new int[n];
+		Arrays.fill(map, -1);
+		int m = 0;
+		for (int p = 0; p < n; p++) {
+			if (map[p] >= 0) continue;
+			map[p] = m;
+			for (int q = sim[p].nextSetBit(p + 1); q >= 0; q = sim[p].nextSetBit(q + 1)) {
+				if (sim[q].get(p))
+					map[q] = m;
+			}
+			m++;
+		}
+		return rebuild(am, m, map, null);
+	}
+
+	/**
+	 * Remove transitions and initial states that are strictly simulated by a sibling
+	 */
+	private static Automata prune(Automata am, BitSet[] sim) {
+		int n = am.nStates;
+		BitSet[][] post = post(am);
+
+		//The transitions kept, per letter and source
+		BitSet[][] kept = new BitSet[am.alphsize][n];
+		for (int a = 0; a < am.alphsize; a++) {
+			for (int p = 0; p < n; p++)
+				kept[a][p] = dominant(post[a][p], sim);
+		}
+
+		int[] map = new int[n];
+		for (int p = 0; p < n; p++)
+			map[p] = p;
+		Automata pruned = rebuild(am, n, map, kept);
+		pruned.initial = dominant(am.initial, sim);
+		return pruned;
+	}
+
+	/**
+	 * The states of a set that are not strictly simulated by another state of the set
+	 */
+	private static BitSet dominant(BitSet states, BitSet[] sim) {
+		BitSet out = (BitSet) states.clone();
+		for (int q = states.nextSetBit(0); q >= 0; q = states.nextSetBit(q + 1)) {
+			for (int r = states.nextSetBit(0); r >= 0; r = states.nextSetBit(r + 1)) {
+				if (r != q && sim[q].get(r) && !sim[r].get(q)) {
+					out.clear(q);
+					break;
+				}
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Build the image of an automata under a state map
+	 * @param am The automata
+	 * @param m The number of new states
+	 * @param map The new state of each old state, -1 to drop it
+	 * @param kept kept[a - 1][p] holds the targets of p under a to keep, or null to keep every transition
+	 * @return The new automata
+	 */
+	private static Automata rebuild(Automata am, int m, int[] map, BitSet[][] kept) {
+		BitSet initial = new BitSet(m), finals = new BitSet(m);
+		for (int p = 0; p < am.nStates; p++) {
+			if (map[p] < 0) continue;
+			if (am.initial.get(p)) initial.set(map[p]);
+			if (am.finals.get(p)) finals.set(map[p]);
+		}
+
+		int[] count = {0};
+		int[][] arrays = {new int[am.ts.size()], new int[am.ts.size()], new int[am.ts.size()]};
+		am.ts.forEach((from, to, under) -> {
+			if (map[from] < 0 || map[to] < 0) return;
+			if (kept != null && !kept[under - 1][from].get(to)) return;
+			arrays[0][count[0]] = map[from];
+			arrays[1][count[0]] = map[to];
+			arrays[2][count[0]++] = under;
+		});
+		return new Automata(m, initial, finals, am.alphsize,
+				new TransitionSystem(m, am.alphsize, arrays[0], arrays[1], arrays[2], count[0]));
+	}
+}
@@ -1,62 +1,123 @@
 package edu.cmu.cdm.safras;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.util.*;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 
+/**
+ * A node of a Safra tree.
+ *
+ * Nodes are hash-consed: create always returns the canonical node for its contents, so structurally
+ * equal subtrees are shared between all trees and equality is a reference check. Nodes are immutable:
+ * create copies the label and children it is given, and the label returned by getLabel must not be modified.
+ */
 public class SafraNode {
-	private int name;
-	private BitSet label;
-	private boolean mark;
-	private List<SafraNode> subnodes;
-
-	//Caching, turn on only if you're running out of memory
-	//Dynamic flyweight, basically
-	private static int ctr = 0;
-	public static boolean cacheValues = false;
-	private static SafraNode[] cache = new SafraNode[30];
-	private static final int cachesize = 30;
+	private final int name;
+	private final BitSet label;
+	private final boolean mark;
+	private final List<SafraNode> subnodes;
+	/** Structural hash, computed once at creation */
+	private final int hash;
+
+	/** The table of canonical nodes */
+	private static final NodeTable table = new NodeTable();
 
 	/**
-	 * Dispose of a Safra node. Call only if the node would normally go to the GC.
-	 * @param sn The node to dispose
+	 * Create a new Safra node, or find the existing one with the same contents
+	 * @param name The name of the node
+	 * @param label The node's label. Not retained, so the caller may reuse it.
+	 * @param mark If the node is marked
+	 * @param subnodes The nodes that are child to this node. Not retained, so the caller may reuse it.
+	 * @return The canonical node
 	 */
-	public static void dispose(SafraNode sn) {
-		if (!cacheValues) return;
-		for (int i = 0; i < sn.subnodes.size(); i++)
-			dispose(sn.subnodes.get(i));
+	public static SafraNode create(int name, BitSet label, boolean mark, List<SafraNode> subnodes) {
+		//Children are canonical, so their cached hashes stand in for their structure
+		int listHash = 1;
+		for (int i = 0; i < subnodes.size(); i++)
+			listHash = 31 * listHash + subnodes.get(i).hash;
+
+		int hash = name;
+		hash = 31 * hash + label.hashCode();
+		hash = 31 * hash + (mark ? 1 : 0);
+		hash = 31 * hash + listHash;
+		return table.intern(name, label, mark, subnodes, hash);
+	}
 
-		if (ctr < cachesize) {
-			cache[ctr++] = sn;
-		}
+	/**
+	 * Create a new Safra node from a range of an array of children, or find the existing one with the
+	 * same contents. Nothing is allocated unless the node is new.
+	 * @param name The name of the node
+	 * @param label The node's label. Not retained, so the caller may reuse it.
+	 * @param mark If the node is marked
+	 * @param subnodes Holds the nodes that are child to this node. Not retained, so the caller may reuse it.
+	 * @param from The index of the first child in subnodes
+	 * @param to The index after the last child in subnodes
+	 * @return The canonical node
+	 */
+	static SafraNode create(int name, BitSet label, boolean mark, SafraNode[] subnodes, int from, int to) {
+		int listHash = 1;
+		for (int i = from; i < to; i++)
+			listHash = 31 * listHash + subnodes[i].hash;
+
+		int hash = name;
+		hash = 31 * hash + label.hashCode();
+		hash = 31 * hash + (mark ? 1 : 0);
+		hash = 31 * hash + listHash;
+		return table.intern(name, label, mark, subnodes, from, to, hash);
+	}
+
+	/**
+	 * @return The number of canonical nodes that are currently alive
+	 */
+	public static int canonicalNodes() {
+		return table.size();
+	}
+
+	SafraNode(int name, BitSet label, boolean mark, SafraNode[] subnodes, int from, int to, int hash) {
+		this.name = name;
+		this.label = (BitSet) label.clone();
+		this.mark = mark;
+		this.subnodes = from == to ? Collections.emptyList()
+				: Collections.unmodifiableList(Arrays.asList(Arrays.copyOfRange(subnodes, from, to)));
+		this.hash = hash;
 	}
 
 	/**
-	 * Create a new Safra node
+	 * Check if this node has the given contents
 	 * @param name The name of the node
 	 * @param label The node's label
 	 * @param mark If the node is marked
-	 * @param subnodes The nodes that are child to this node
-	 * @return The new node
+	 * @param subnodes The canonical children of the node
+	 * @return True iff this node is structurally equal to the described one
 	 */
-	public static SafraNode create(int name, BitSet label, boolean mark, List<SafraNode> subnodes) {
-		if (ctr > 0 && cacheValues) {
-			SafraNode outp = cache[--ctr];
-			outp.name = name;
-			outp.label = label;
-			outp.mark = mark;
-			outp.subnodes = subnodes;
-			return outp;
+	boolean matches(int name, BitSet label, boolean mark, List<SafraNode> subnodes) {
+		if (this.name != name || this.mark != mark) return false;
+		if (this.subnodes.size() != subnodes.size()) return false;
+		for (int i = 0; i < subnodes.size(); i++) {
+			if (this.subnodes.get(i) != subnodes.get(i)) return false;
 		}
-		return new SafraNode(name, label, mark, subnodes);
+		return this.label.equals(label);
 	}
 
-	private SafraNode(int name, BitSet label, boolean mark, List<SafraNode> subnodes) {
-		this.name = name;
-		this.label = label;
-		this.mark = mark;
-		this.subnodes = subnodes;
+	/**
+	 * Check if this node has the given contents, with children taken from a range of an array
+	 * @param name The name of the node
+	 * @param label The node's label
+	 * @param mark If the node is marked
+	 * @param subnodes Holds the canonical children of the node
+	 * @param from The index of the first child in subnodes
+	 * @param to The index after the last child in subnodes
+	 * @return True iff this node is structurally equal to the described one
+	 */
+	boolean matches(int name, BitSet label, boolean mark, SafraNode[] subnodes, int from, int to) {
+		if (this.name != name || this.mark != mark) return false;
+		if (this.subnodes.size() != to - from) return false;
+		for (int i = from; i < to; i++) {
+			if (this.subnodes.get(i - from) != subnodes[i]) return false;
+		}
+		return this.label.equals(label);
 	}
 
 	public int getName() {
@@ -77,40 +138,13 @@ public class SafraNode {
 
 	@Override
 	public boolean equals(Object o) {
-		if (this == o) return true;
-		if (o == null || getClass() != o.getClass()) return false;
-
-		SafraNode safraNode = (SafraNode) o;
-
-		if (mark != safraNode.mark) return false;
-		if (name != safraNode.name) return false;
-		if (!label.equals(safraNode.label)) return false;
-
-		if (subnodes.size() != safraNode.subnodes.size()) return false;
-		for (int i = 0; i < subnodes.size(); i++) {
-			if (!subnodes.get(i).equals(safraNode.subnodes.get(i))) return false;
-		}
-		return true;
+		//Nodes are canonical
+		return this == o;
 	}
 
-	private boolean rec = false;
 	@Override
 	public int hashCode() {
-		if (rec)
-			return 0;
-		rec = true;
-		int result = name;
-		result = 31 * result + label.hashCode();
-		result = 31 * result + (mark ? 1 : 0);
-		int listHash = 1;
-
-		for (int i = 0; i < subnodes.size(); i++) {
-			SafraNode e = subnodes.get(i);
-			listHash = 31 * listHash + (e == null ? 0 : e.hashCode());
-		}
-		result = 31 * result + listHash;
-		rec = false;
-		return result;
+		return hash;
 	}
 
 	@Override
@@ -0,0 +1,227 @@
+package edu.cmu.cdm.safras;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Allocation-free variant of MonopassTransformer, producing identical trees.
+ *
+ * Every thread keeps scratch buffers sized from the number of states: one label and one new-child label
+ * per tree depth, and a single stack that the children of every node being rebuilt are pushed onto.
+ * Children are passed around as nullable nodes, and new children are built straight into their final
+ * node instead of through an intermediate one. The only allocations left are the canonical nodes that
+ * did not exist yet and the resulting tree itself.
+ */
+public class ScratchTransformer implements SafraTransition {
+
+	/**
+	 * The scratch buffers of one thread
+	 */
+	private static final class Scratch {
+		/** The number of states the buffers are sized for */
+		final int nStates;
+		/** The new label of the node at each depth */
+		BitSet[] labels;
+		/** The label of the new child of the node at each depth */
+		BitSet[] subLabels;
+		/** The children built so far, for every node on the path being rebuilt */
+		SafraNode[] children;
+		/** The top of the children stack */
+		int top = 0;
+
+		final BitSet initNames, seen;
+
+		Scratch(int nStates) {
+			this.nStates = nStates;
+			//A Safra tree has at most n nodes, and a transition adds at most n new ones
+			int depth = 2 * nStates + 2;
+			labels = new BitSet[depth];
+			subLabels = new BitSet[depth];
+			for (int i = 0; i < depth; i++) {
+				labels[i] = new BitSet(nStates);
+				subLabels[i] = new BitSet(nStates);
+			}
+			children = new SafraNode[depth];
+			initNames = new BitSet(2 * nStates);
+			seen = new BitSet(nStates);
+		}
+
+		/**
+		 * Push a child onto the stack, growing it if needed
+		 */
+		void push(SafraNode child) {
+			if (top == children.length)
+				children = Arrays.copyOf(children, top * 2);
+			children[top++] = child;
+		}
+
+		/**
+		 * Make sure there are buffers for a depth
+		 */
+		void reach(int depth) {
+			if (depth < labels.length) return;
+			int old = labels.length;
+			labels = Arrays.copyOf(labels, depth * 2);
+			subLabels = Arrays.copyOf(subLabels, depth * 2);
+			for (int i = old; i < labels.length; i++) {
+				labels[i] = new BitSet(nStates);
+				subLabels[i] = new BitSet(nStates);
+			}
+		}
+	}
+
+	/** The buffers of each thread */
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<>();
+
+	/**
+	 * Get the buffers of the current thread for an automata
+	 * @param nStates The number of states of the automata
+	 * @return The buffers
+	 */
+	private Scratch scratch(int nStates) {
+		Scratch s = scratch.get();
+		if (s == null || s.nStates != nStates) {
+			s = new Scratch(nStates);
+			scratch.set(s);
+		}
+		return s;
+	}
+
+	/**
+	 * Releases the names of all nodes in the list and all of their children
+	 * @param nodes The nodes to delete
+	 * @param names The set of names to alter as deletions happen
+	 */
+	private static void deleteNodes(List<SafraNode> nodes, BitSet names) {
+		for (int i = 0; i < nodes.size(); i++) {
+			SafraNode sn = nodes.get(i);
+			names.clear(sn.getName()-1);
+			deleteNodes(sn.getSubnodes(), names);
+		}
+	}
+
+	/**
+	 * The recursive bit of a safra transition, as in MonopassTransformer.
+	 *
+	 * @param s The scratch buffers
+	 * @param depth The depth of elem, selecting its label buffers
+	 * @param images The image computer of the transition system
+	 * @param character The letter to transition under
+	 * @param elem The node to transform
+	 * @param realNames The actual set of names used in the tree, with deletes
+	 * @param finals The set of final states in the DFA
+	 * @return The new node, or null if it was killed
+	 */
+	private static SafraNode transform(Scratch s, int depth, ImageComputer images, int character, SafraNode elem,
+									   BitSet realNames, BitSet finals) {
+		s.reach(depth);
+		BitSet seen = s.seen;
+
+		//Update
+		BitSet newLabel = s.labels[depth];
+		newLabel.clear();
+		images.image(character, elem.getLabel(), newLabel);
+
+		//Create. The new child's name is 0 if there is none.
+		int newName = 0;
+		BitSet subLabel = s.subLabels[depth];
+		if (newLabel.intersects(finals)) {
+			subLabel.clear();
+			subLabel.or(newLabel);
+			subLabel.and(finals);
+
+			int name = s.initNames.nextClearBit(0);
+			newName = name + 1;
+			s.initNames.set(name);
+			realNames.set(name);
+		}
+
+		//Horizontal merge
+		newLabel.and(seen);
+
+		//kill empty
+		if (newLabel.isEmpty()) {
+			realNames.clear(elem.getName()-1);
+			deleteNodes(elem.getSubnodes(), realNames);
+			if (newName != 0)
+				realNames.clear(newName-1);
+			return null;
+		}
+
+		int pre = seen.cardinality();
+
+		//Children are pushed above base
+		int base = s.top;
+		List<SafraNode> nodes = elem.getSubnodes();
+		for (int i = 0; i < nodes.size(); i++) {
+			SafraNode child = transform(s, depth + 1, images, character, nodes.get(i), realNames, finals);
+			if (child != null)
+				s.push(child);
+		}
+
+		//The new child is marked, has no children, and keeps the part of its label not seen yet
+		if (newName != 0) {
+			subLabel.and(seen);
+			if (subLabel.isEmpty()) {
+				realNames.clear(newName-1);
+			} else {
+				seen.andNot(subLabel);
+				s.push(SafraNode.create(newName, subLabel, true, s.children, 0, 0));
+			}
+		}
+
+		int post = seen.cardinality();
+
+		//add current label to seen
+		seen.andNot(newLabel);
+
+		SafraNode result;
+		if (pre - post == newLabel.cardinality()) {
+			//Children cover the label, so they go away
+			for (int i = base; i < s.top; i++) {
+				realNames.clear(s.children[i].getName()-1);
+				deleteNodes(s.children[i].getSubnodes(), realNames);
+			}
+			result = SafraNode.create(elem.getName(), newLabel, true, s.children, 0, 0);
+		} else {
+			result = SafraNode.create(elem.getName(), newLabel, false, s.children, base, s.top);
+		}
+
+		//Pop the children
+		Arrays.fill(s.children, base, s.top, null);
+		s.top = base;
+		return result;
+	}
+
+	/**
+	 * Safra transition function
+	 * @param am The Automata to build a tree for
+	 * @param source The tree to build off of
+	 * @param character The letter to transition under
+	 * @return The new Safra tree
+	 */
+	@Override
+	public SafraTree transition(Automata am, SafraTree source, int character) {
+		Scratch s = scratch(am.nStates);
+		s.top = 0;
+
+		//The set of names as if the delete hasn't happened yet, see MonopassTransformer
+		s.initNames.clear();
+		s.initNames.or(source.getUsedNames());
+
+		//The real set of new names
+		BitSet newNames = (BitSet) source.getUsedNames().clone();
+
+		//seen is inverted
+		s.seen.clear();
+		s.seen.set(0, am.nStates);
+
+		SafraNode result = null;
+		if (source.getNode().isPresent())
+			result = transform(s, 0, am.images, character, source.getNode().get(), newNames, am.finals);
+
+		return new SafraTree(Optional.ofNullable(result), newNames);
+	}
+}
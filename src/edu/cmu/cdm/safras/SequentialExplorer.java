@@ -0,0 +1,41 @@
+package edu.cmu.cdm.safras;
+
+/**
+ * Single threaded BFS exploration. Reference implementation.
+ */
+public class SequentialExplorer extends Explorer {
+
+	public SequentialExplorer(SafraTransition tform) {
+		super(tform);
+	}
+
+	@Override
+	public RabinAutomaton explore(Automata automata, SafraTree initial) {
+		int alph = automata.alphsize;
+
+		//The states seen so far
+		StateRegistry registry = new StateRegistry();
+		successor(initial, registry.register(initial));
+
+		//succ[id * alph + i] is the successor of state id under letter i + 1
+		int[] succ = new int[1024 * alph];
+
+		//BFS. States are numbered in discovery order, so the frontier is every state past the current one.
+		//Without retention every state's row goes to the start of the table
+		for (int id = 0; id < registry.size(); id++) {
+			SafraTree tree = registry.get(id);
+			SafraTree[] out = expand(automata, tree);
+			int row = retain ? id * alph : 0;
+			succ = ensureCapacity(succ, row + alph);
+			for (int i = 0; i < alph; i++) {
+				//Find the number of the target, adding it to the frontier if it is new
+				int tgt = registry.register(out[i]);
+				successor(out[i], tgt);
+				succ[row + i] = tgt < 0 ? -tgt - 1 : tgt;
+			}
+			expanded(id, tree, succ, row);
+			progress(id + 1, registry.size());
+		}
+		return new RabinAutomaton(registry.states(), alph, retain ? succ : new int[0]);
+	}
+}
@@ -0,0 +1,252 @@
+package edu.cmu.cdm.safras;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Variant of ScratchTransformer for automata with at most 64 states, producing identical trees.
+ *
+ * Every label and the seen set are single longs, names are two longs, and the transition relation is a
+ * long[letter][state] table of successor sets. The source tree is flattened once into primitive arrays
+ * in preorder and kept while the same tree is transitioned under other letters, as explorers do. Only
+ * the resulting nodes go back through BitSet, since they are canonical SafraNodes shared with the rest
+ * of the program.
+ */
+public class SmallTransformer implements SafraTransition {
+	/** The largest number of states supported */
+	public static final int MAX_STATES = 64;
+
+	/**
+	 * The buffers of one thread
+	 */
+	private static final class Scratch {
+		/** The automata the table was built for */
+		Automata automata;
+		/** post[letter][state] is the set of successors of state under letter */
+		long[][] post;
+		long finals;
+
+		/** The flattened source tree, in preorder */
+		SafraTree source;
+		int count;
+		int[] name = new int[MAX_STATES], end = new int[MAX_STATES];
+		long[] label = new long[MAX_STATES];
+
+		/** The children built so far, for every node on the path being rebuilt */
+		SafraNode[] children = new SafraNode[2 * MAX_STATES];
+		int top;
+
+		/** Names before deletes and after them, as two words each */
+		final long[] initNames = new long[2], realNames = new long[2];
+		long seen;
+
+		/** Used to hand labels to SafraNode.create, which copies them */
+		final BitSet bits = new BitSet(MAX_STATES);
+
+		void push(SafraNode child) {
+			if (top == children.length)
+				children = Arrays.copyOf(children, top * 2);
+			children[top++] = child;
+		}
+
+		/**
+		 * Build the successor table of an automata, if it is not the current one
+		 */
+		void load(Automata am) {
+			if (automata == am) return;
+			post = new long[am.alphsize + 1][am.nStates];
+			am.ts.forEach((from, to, under) -> post[under][from] |= 1L << to);
+			finals = word(am.finals);
+			automata = am;
+			source = null;
+		}
+
+		/**
+		 * Flatten a tree, if it is not the current one
+		 */
+		void flatten(SafraTree tree) {
+			if (source == tree) return;
+			count = 0;
+			tree.getNode().ifPresent(this::flatten);
+			source = tree;
+		}
+
+		private void flatten(SafraNode node) {
+			int i = count++;
+			name[i] = node.getName();
+			label[i] = word(node.getLabel());
+			List<SafraNode> subnodes = node.getSubnodes();
+			for (int k = 0; k < subnodes.size(); k++)
+				flatten(subnodes.get(k));
+			end[i] = count;
+		}
+
+		/**
+		 * Fill the BitSet handed to SafraNode.create from a label
+		 */
+		BitSet bits(long label) {
+			bits.clear();
+			for (long w = label; w != 0; w &= w - 1)
+				bits.set(Long.numberOfTrailingZeros(w));
+			return bits;
+		}
+	}
+
+	/** The buffers of each thread */
+	private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+	/**
+	 * @param am An automata
+	 * @return True iff this transformer can handle it
+	 */
+	public static boolean supports(Automata am) {
+		return am.nStates <= MAX_STATES;
+	}
+
+	/**
+	 * The first word of a set of at most 64 states
+	 */
+	private static long word(BitSet set) {
+		long w = 0;
+		for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1))
+			w |= 1L << i;
+		return w;
+	}
+
+	private static void clear(long[] names, int name) {
+		names[(name - 1) >>> 6] &= ~(1L << (name - 1));
+	}
+
+	private static void set(long[] names, int name) {
+		names[(name - 1) >>> 6] |= 1L << (name - 1);
+	}
+
+	/**
+	 * @return The lowest name not in a set
+	 */
+	private static int nextFree(long[] names) {
+		if (names[0] != -1L)
+			return Long.numberOfTrailingZeros(~names[0]) + 1;
+		return Long.numberOfTrailingZeros(~names[1]) + 65;
+	}
+
+	/**
+	 * Releases the names of all nodes in the list and all of their children
+	 */
+	private static void deleteNodes(List<SafraNode> nodes, long[] names) {
+		for (int i = 0; i < nodes.size(); i++) {
+			SafraNode sn = nodes.get(i);
+			clear(names, sn.getName());
+			deleteNodes(sn.getSubnodes(), names);
+		}
+	}
+
+	/**
+	 * The recursive bit of a safra transition, as in ScratchTransformer.
+	 *
+	 * @param s The buffers, holding the flattened source tree
+	 * @param i The preorder index of the node to transform
+	 * @param character The letter to transition under
+	 * @return The new node, or null if it was killed
+	 */
+	private static SafraNode transform(Scratch s, int i, int character) {
+		//Update
+		long[] succ = s.post[character];
+		long newLabel = 0;
+		for (long w = s.label[i]; w != 0; w &= w - 1)
+			newLabel |= succ[Long.numberOfTrailingZeros(w)];
+
+		//Create. The new child's name is 0 if there is none.
+		int newName = 0;
+		long subLabel = newLabel & s.finals;
+		if (subLabel != 0) {
+			newName = nextFree(s.initNames);
+			set(s.initNames, newName);
+			set(s.realNames, newName);
+		}
+
+		//Horizontal merge
+		newLabel &= s.seen;
+
+		//kill empty
+		if (newLabel == 0) {
+			for (int k = i; k < s.end[i]; k++)
+				clear(s.realNames, s.name[k]);
+			if (newName != 0)
+				clear(s.realNames, newName);
+			return null;
+		}
+
+		int pre = Long.bitCount(s.seen);
+
+		//Children are pushed above base
+		int base = s.top;
+		for (int k = i + 1; k < s.end[i]; k = s.end[k]) {
+			SafraNode child = transform(s, k, character);
+			if (child != null)
+				s.push(child);
+		}
+
+		//The new child is marked, has no children, and keeps the part of its label not seen yet
+		if (newName != 0) {
+			subLabel &= s.seen;
+			if (subLabel == 0) {
+				clear(s.realNames, newName);
+			} else {
+				s.seen &= ~subLabel;
+				s.push(SafraNode.create(newName, s.bits(subLabel), true, s.children, 0, 0));
+			}
+		}
+
+		int post = Long.bitCount(s.seen);
+
+		//add current label to seen
+		s.seen &= ~newLabel;
+
+		SafraNode result;
+		if (pre - post == Long.bitCount(newLabel)) {
+			//Children cover the label, so they go away
+			for (int k = base; k < s.top; k++) {
+				clear(s.realNames, s.children[k].getName());
+				deleteNodes(s.children[k].getSubnodes(), s.realNames);
+			}
+			result = SafraNode.create(s.name[i], s.bits(newLabel), true, s.children, 0, 0);
+		} else {
+			result = SafraNode.create(s.name[i], s.bits(newLabel), false, s.children, base, s.top);
+		}
+
+		//Pop the children
+		Arrays.fill(s.children, base, s.top, null);
+		s.top = base;
+		return result;
+	}
+
+	/**
+	 * Safra transition function
+	 * @param am The Automata to build a tree for, with at most 64 states
+	 * @param source The tree to build off of
+	 * @param character The letter to transition under
+	 * @return The new Safra tree
+	 */
+	@Override
+	public SafraTree transition(Automata am, SafraTree source, int character) {
+		if (!supports(am))
+			throw new IllegalArgumentException("SmallTransformer handles at most " + MAX_STATES + " states, not " + am.nStates);
+		Scratch s = scratch.get();
+		s.load(am);
+		s.flatten(source);
+		s.top = 0;
+
+		long[] names = source.getUsedNames().toLongArray();
+		s.initNames[0] = s.realNames[0] = names.length > 0 ? names[0] : 0;
+		s.initNames[1] = s.realNames[1] = names.length > 1 ? names[1] : 0;
+
+		//seen is inverted
+		s.seen = am.nStates == 64 ? -1L : (1L << am.nStates) - 1;
+
+		SafraNode result = s.count == 0 ? null : transform(s, 0, character);
+		return new SafraTree(Optional.ofNullable(result), BitSet.valueOf(s.realNames));
+	}
+}
@@ -0,0 +1,152 @@
+package edu.cmu.cdm.safras;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An append-only file of encoded Safra trees, numbered densely in the order they were appended.
+ *
+ * Encodings are written back to back, and only their offsets are kept on the heap. The file can be read
+ * back sequentially from any state, and is mapped into memory to give a list view of the trees.
+ */
+class StateFile implements AutoCloseable {
+	/** The largest mapped region */
+	private static final long REGION = 1L << 30;
+
+	private final Path file;
+	private final OutputStream out;
+
+	/** offsets[i] is the offset of state i, and offsets[size] is the length of the file */
+	private long[] offsets = new long[1024];
+	/** The number of states */
+	private int size = 0;
+
+	/**
+	 * Create a state file. The file is overwritten.
+	 * @param file The file
+	 * @param buffer The write buffer size
+	 * @throws IOException If the file cannot be created
+	 */
+	StateFile(Path file, int buffer) throws IOException {
+		this.file = file;
+		this.out = new BufferedOutputStream(Files.newOutputStream(file), buffer);
+	}
+
+	/**
+	 * Append a tree
+	 * @param enc The encoding of the tree
+	 * @return The number of the tree
+	 * @throws IOException If the file cannot be written
+	 */
+	int append(byte[] enc) throws IOException {
+		out.write(enc);
+		if (size + 2 > offsets.length)
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		offsets[size + 1] = offsets[size] + enc.length;
+		return size++;
+	}
+
+	/**
+	 * @return The number of trees
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return The length of the file, in bytes
+	 */
+	long bytes() {
+		return offsets[size];
+	}
+
+	/**
+	 * Read the trees from one on, in order
+	 * @param from The number of the first tree read
+	 * @param buffer The read buffer size
+	 * @return A stream positioned at the tree, whose encodings are read with read
+	 * @throws IOException If the file cannot be read
+	 */
+	DataInputStream reader(int from, int buffer) throws IOException {
+		out.flush();
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		channel.position(offsets[from]);
+		return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), buffer));
+	}
+
+	/**
+	 * Read the encoding of a tree from a stream returned by reader
+	 * @param in The stream
+	 * @param id The number of the next tree in the stream
+	 * @return The encoding
+	 * @throws IOException If the file cannot be read
+	 */
+	byte[] read(DataInputStream in, int id) throws IOException {
+		byte[] enc = new byte[(int) (offsets[id + 1] - offsets[id])];
+		in.readFully(enc);
+		return enc;
+	}
+
+	/**
+	 * Map the file and view it as a list of trees. Trees appended later are not part of the view.
+	 * @return The trees, decoded whenever they are read
+	 * @throws IOException If the file cannot be mapped
+	 */
+	List<SafraTree> states() throws IOException {
+		out.flush();
+		int n = size;
+		long[] offsets = Arrays.copyOf(this.offsets, n + 1);
+
+		//Regions start at tree boundaries, so no tree crosses two of them
+		List<ByteBuffer> regions = new ArrayList<>();
+		int[] firstState = new int[1];
+		int nRegions = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			for (int start = 0; start < n; ) {
+				int end = start + 1;
+				while (end < n && offsets[end + 1] - offsets[start] <= REGION)
+					end++;
+				regions.add(channel.map(FileChannel.MapMode.READ_ONLY, offsets[start], offsets[end] - offsets[start]));
+				if (nRegions == firstState.length)
+					firstState = Arrays.copyOf(firstState, nRegions * 2);
+				firstState[nRegions++] = start;
+				start = end;
+			}
+		}
+		int[] starts = Arrays.copyOf(firstState, nRegions);
+
+		return new AbstractList<SafraTree>() {
+			@Override
+			public SafraTree get(int index) {
+				if (index < 0 || index >= n)
+					throw new IndexOutOfBoundsException("State " + index + " of " + n);
+				int r = Arrays.binarySearch(starts, index);
+				if (r < 0) r = -r - 2;
+				return TreeCodec.decode(regions.get(r), (int) (offsets[index] - offsets[starts[r]]));
+			}
+
+			@Override
+			public int size() {
+				return n;
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
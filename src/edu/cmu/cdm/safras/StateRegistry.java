@@ -0,0 +1,110 @@
+package edu.cmu.cdm.safras;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Dense numbering of Safra trees, in registration order.
+ *
+ * An open-addressing table of state numbers over an array of trees. Registering a successor is a single
+ * probe sequence that either finds its number or assigns the next one. Lookups may run concurrently with
+ * each other, but not with registration.
+ */
+public class StateRegistry {
+	/** states[i] is the tree numbered i */
+	private SafraTree[] states = new SafraTree[1024];
+	/** hashes[i] is the hash of states[i] */
+	private int[] hashes = new int[1024];
+	/** The number of registered trees */
+	private int size = 0;
+	/** Open addressing index, holding state number + 1 or 0 for free slots */
+	private int[] index = new int[2048];
+
+	/**
+	 * Register a tree if it has no number yet
+	 * @param tree The tree
+	 * @return The number of the tree if it is new, or -(number + 1) if it was already registered
+	 */
+	public int register(SafraTree tree) {
+		int hash = hash(tree);
+		int mask = index.length - 1;
+		int slot = hash & mask;
+		for (int id; (id = index[slot]) != 0; slot = (slot + 1) & mask) {
+			if (hashes[id - 1] == hash && states[id - 1].equals(tree))
+				return -id;
+		}
+
+		int id = size++;
+		if (id == states.length) {
+			states = Arrays.copyOf(states, id * 2);
+			hashes = Arrays.copyOf(hashes, id * 2);
+		}
+		states[id] = tree;
+		hashes[id] = hash;
+		index[slot] = id + 1;
+
+		if (size * 2 > index.length)
+			rehash();
+		return id;
+	}
+
+	/**
+	 * Find the number of a tree
+	 * @param tree The tree
+	 * @return Its number, or -1 if it is not registered
+	 */
+	public int find(SafraTree tree) {
+		int hash = hash(tree);
+		int mask = index.length - 1;
+		for (int slot = hash & mask, id; (id = index[slot]) != 0; slot = (slot + 1) & mask) {
+			if (hashes[id - 1] == hash && states[id - 1].equals(tree))
+				return id - 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param id A state number
+	 * @return The tree with that number
+	 */
+	public SafraTree get(int id) {
+		return states[id];
+	}
+
+	/**
+	 * @return The number of registered trees
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The registered trees, indexed by number
+	 */
+	public List<SafraTree> states() {
+		return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(states, size)));
+	}
+
+	/**
+	 * Double the size of the index
+	 */
+	private void rehash() {
+		index = new int[index.length * 2];
+		int mask = index.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hashes[id] & mask;
+			while (index[slot] != 0)
+				slot = (slot + 1) & mask;
+			index[slot] = id + 1;
+		}
+	}
+
+	/**
+	 * Tree hashes are structural and not spread over the low bits, so mix them for linear probing
+	 */
+	private static int hash(SafraTree tree) {
+		int h = tree.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,250 @@
+package edu.cmu.cdm.safras;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Off-heap store of encoded Safra trees, numbered densely in insertion order.
+ *
+ * The encodings live in fixed size chunks that are either direct buffers or mapped from a file, each
+ * prefixed with its length as a varint. The Java heap only holds the per-state offsets and hashes and an
+ * open-addressing index from encodings to state numbers, which is about 20 bytes per state.
+ */
+public class StateStore implements AutoCloseable {
+	/** The default size of a chunk of encodings */
+	private static final int DEFAULT_CHUNK = 1 << 26;
+
+	/** The chunk size */
+	private final int chunkSize;
+	/** The backing file, or null for direct buffers */
+	private final FileChannel channel;
+	/** The chunks of encoded trees */
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	/** The write position in the last chunk */
+	private int tail;
+
+	/** offsets[i] is the global offset of state i, as chunk * chunkSize + position */
+	private long[] offsets = new long[1024];
+	/** hashes[i] is the hash of the encoding of state i */
+	private int[] hashes = new int[1024];
+	/** The number of states */
+	private int size = 0;
+
+	/** Open addressing index, holding state number + 1 or 0 for free slots */
+	private int[] index = new int[2048];
+
+	/**
+	 * Create a store backed by direct buffers
+	 */
+	public StateStore() {
+		this.chunkSize = DEFAULT_CHUNK;
+		this.channel = null;
+	}
+
+	/**
+	 * Create a store backed by a memory mapped file. The file is overwritten.
+	 * @param file The backing file
+	 * @throws IOException If the file cannot be opened
+	 */
+	public StateStore(Path file) throws IOException {
+		this.chunkSize = DEFAULT_CHUNK;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Add an encoded tree if it is not in the store yet
+	 * @param enc The encoding
+	 * @return The number of the new state, or -(number + 1) if the tree was already present
+	 */
+	public int add(byte[] enc) {
+		int hash = hash(enc);
+		int mask = index.length - 1;
+		int slot = hash & mask;
+		for (int id; (id = index[slot]) != 0; slot = (slot + 1) & mask) {
+			if (hashes[id - 1] == hash && matches(id - 1, enc))
+				return -id;
+		}
+
+		int id = size++;
+		if (id == offsets.length) {
+			offsets = Arrays.copyOf(offsets, id * 2);
+			hashes = Arrays.copyOf(hashes, id * 2);
+		}
+		offsets[id] = append(enc);
+		hashes[id] = hash;
+		index[slot] = id + 1;
+
+		if (size * 2 > index.length)
+			rehash();
+		return id;
+	}
+
+	/**
+	 * Find an encoded tree
+	 * @param enc The encoding
+	 * @return The number of the state, or -1 if it is not in the store
+	 */
+	public int find(byte[] enc) {
+		int hash = hash(enc);
+		int mask = index.length - 1;
+		for (int slot = hash & mask, id; (id = index[slot]) != 0; slot = (slot + 1) & mask) {
+			if (hashes[id - 1] == hash && matches(id - 1, enc))
+				return id - 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Decode a stored tree
+	 * @param id The state number
+	 * @return The tree
+	 */
+	public SafraTree get(int id) {
+		ByteBuffer chunk = chunks.get((int) (offsets[id] / chunkSize));
+		int[] cursor = {(int) (offsets[id] % chunkSize)};
+		TreeCodec.readVarint(chunk, cursor);
+		return TreeCodec.decode(chunk, cursor[0]);
+	}
+
+	/**
+	 * @return A view of the stored trees indexed by state number, decoding each tree as it is read
+	 */
+	public List<SafraTree> states() {
+		return new AbstractList<SafraTree>() {
+			@Override
+			public SafraTree get(int index) {
+				if (index < 0 || index >= size)
+					throw new IndexOutOfBoundsException("State " + index + " of " + size);
+				return StateStore.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * @return The number of stored states
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The number of bytes of encodings held off-heap
+	 */
+	public long bytes() {
+		return chunks.isEmpty() ? 0 : (long) (chunks.size() - 1) * chunkSize + tail;
+	}
+
+	/**
+	 * Copy an encoding to the end of the store
+	 * @param enc The encoding
+	 * @return Its global offset
+	 */
+	private long append(byte[] enc) {
+		int len = enc.length + varintSize(enc.length);
+		if (len > chunkSize)
+			throw new IllegalArgumentException("Encoded tree of " + enc.length + " bytes does not fit in a chunk");
+		if (chunks.isEmpty() || tail + len > chunkSize) {
+			chunks.add(allocate(chunks.size()));
+			tail = 0;
+		}
+
+		ByteBuffer chunk = chunks.get(chunks.size() - 1);
+		long offset = (long) (chunks.size() - 1) * chunkSize + tail;
+		int value = enc.length;
+		while ((value & ~0x7F) != 0) {
+			chunk.put(tail++, (byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		chunk.put(tail++, (byte) value);
+		for (int i = 0; i < enc.length; i++)
+			chunk.put(tail++, enc[i]);
+		return offset;
+	}
+
+	/**
+	 * Allocate a new chunk
+	 * @param n The number of the chunk
+	 * @return The chunk
+	 */
+	private ByteBuffer allocate(int n) {
+		if (channel == null)
+			return ByteBuffer.allocateDirect(chunkSize);
+		try {
+			return channel.map(FileChannel.MapMode.READ_WRITE, (long) n * chunkSize, chunkSize);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not grow the state store", e);
+		}
+	}
+
+	/**
+	 * Compare a stored encoding with a candidate
+	 * @param id The stored state
+	 * @param enc The candidate encoding
+	 * @return True iff they are the same
+	 */
+	private boolean matches(int id, byte[] enc) {
+		ByteBuffer chunk = chunks.get((int) (offsets[id] / chunkSize));
+		int[] cursor = {(int) (offsets[id] % chunkSize)};
+		if (TreeCodec.readVarint(chunk, cursor) != enc.length)
+			return false;
+		for (int i = 0, p = cursor[0]; i < enc.length; i++, p++) {
+			if (chunk.get(p) != enc[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Double the size of the index
+	 */
+	private void rehash() {
+		index = new int[index.length * 2];
+		int mask = index.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hashes[id] & mask;
+			while (index[slot] != 0)
+				slot = (slot + 1) & mask;
+			index[slot] = id + 1;
+		}
+	}
+
+	private static int varintSize(int value) {
+		int n = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Hash an encoding. The result is mixed so that linear probing over the low bits behaves.
+	 */
+	private static int hash(byte[] enc) {
+		int h = Arrays.hashCode(enc) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Close the backing file. Stored trees stay readable, since mappings outlive their channel.
+	 * @throws IOException If the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel != null)
+			channel.close();
+	}
+}
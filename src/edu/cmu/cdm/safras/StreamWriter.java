@@ -0,0 +1,167 @@
+package edu.cmu.cdm.safras;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Writes a determinized automata to a file while it is explored, one state at a time.
+ *
+ * Registered as an explorer's listener, it is given every state with its successors as soon as they are
+ * known. Records go into a buffer that is written to the file channel when it fills up, and at least
+ * every FLUSH_MILLIS, so readers of the file can follow the run. Acceptance is the Rabin pairs of Marker,
+ * pair i for Buechi state i, or with compact trees the parity priorities of PitermanTransformer, which
+ * remembers the priorities of the steps the explorer just took.
+ */
+public abstract class StreamWriter implements Explorer.Listener, Closeable {
+	/** The longest time records stay in the buffer, in milliseconds */
+	public static final long FLUSH_MILLIS = 100;
+
+	private final FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+	private long lastFlush = System.nanoTime();
+
+	/** The Buechi automata being determinized */
+	protected final Automata automata;
+	/** The compact tree transformer giving edge priorities, or null for Rabin pairs */
+	protected final PitermanTransformer parity;
+	private final Marker marker = new Marker();
+
+	/** The number of states written */
+	protected int states = 0;
+	/** The priorities written, with parity acceptance */
+	private final BitSet written = new BitSet();
+
+	/**
+	 * Open a writer
+	 * @param file The output file, replaced if it exists
+	 * @param automata The Buechi automata being determinized
+	 * @param tform The transition function the explorer uses
+	 * @throws IOException If the file cannot be created
+	 */
+	protected StreamWriter(Path file, Automata automata, SafraTransition tform) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.automata = automata;
+		this.parity = tform instanceof PitermanTransformer ? (PitermanTransformer) tform : null;
+	}
+
+	/**
+	 * Open a writer for a file, in the binary format if its name ends in .bin and in HOA otherwise
+	 * @param file The output file
+	 * @param format hoa, binary, or null to go by the file name
+	 * @param automata The Buechi automata being determinized
+	 * @param tform The transition function the explorer uses
+	 * @return The writer
+	 * @throws IOException If the file cannot be created
+	 */
+	public static StreamWriter open(Path file, String format, Automata automata, SafraTransition tform) throws IOException {
+		if (format == null)
+			format = file.getFileName().toString().endsWith(".bin") ? "binary" : "hoa";
+		switch (format) {
+			case "hoa":
+				return new HoaWriter(file, automata, tform);
+			case "binary":
+				return new BinaryWriter(file, automata, tform);
+			default:
+				throw new IllegalArgumentException("Unknown output format " + format);
+		}
+	}
+
+	@Override
+	public void expanded(int id, SafraTree tree, int[] succ, int offset) {
+		try {
+			if (parity != null) {
+				//Letters acting the same on the root label take the same step. The explorer has just taken
+				//the others, which the transformer remembers.
+				int[] rep = automata.ts.letterClasses(tree.getNode().map(SafraNode::getLabel).orElseGet(BitSet::new));
+				int[] priorities = new int[automata.alphsize];
+				for (int i = 0; i < priorities.length; i++) {
+					priorities[i] = rep[i] != i ? priorities[rep[i]] : parity.priority(automata, tree, i + 1);
+					written.set(priorities[i]);
+				}
+				writeState(id, succ, offset, null, null, priorities);
+			} else {
+				BitSet inL = new BitSet(automata.nStates), inR = new BitSet(automata.nStates);
+				tree.getNode().ifPresent(node -> {
+					marker.collect(node, inL, inR);
+					inL.flip(0, automata.nStates);
+				});
+				writeState(id, succ, offset, inL, inR, null);
+			}
+			states++;
+			if (System.nanoTime() - lastFlush >= FLUSH_MILLIS * 1000000)
+				flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return The distinct priorities written so far, or null with Rabin pairs
+	 */
+	public BitSet getPriorities() {
+		return parity != null ? written : null;
+	}
+
+	/**
+	 * Write a state's record
+	 * @param id The state number
+	 * @param succ The successor table
+	 * @param offset The start of the state's successors in succ
+	 * @param inL The pairs whose L set holds the state, or null with priorities
+	 * @param inR The pairs whose R set holds the state, or null with priorities
+	 * @param priorities The priority of the transition under every letter, or null with pairs
+	 * @throws IOException If the file cannot be written
+	 */
+	protected abstract void writeState(int id, int[] succ, int offset, BitSet inL, BitSet inR, int[] priorities)
+			throws IOException;
+
+	/**
+	 * Write whatever ends the file
+	 * @throws IOException If the file cannot be written
+	 */
+	protected abstract void writeEnd() throws IOException;
+
+	/**
+	 * Get the buffer with room for some bytes, writing out what it holds if needed
+	 * @param bytes The number of bytes about to be put
+	 * @return The buffer
+	 * @throws IOException If the file cannot be written
+	 */
+	protected ByteBuffer room(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+			if (buffer.capacity() < bytes)
+				buffer = ByteBuffer.allocate(Integer.highestOneBit(bytes) << 1);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Write the buffer out to the file
+	 * @throws IOException If the file cannot be written
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+		lastFlush = System.nanoTime();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			writeEnd();
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -1,13 +1,15 @@
 package edu.cmu.cdm.safras;
 
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collector;
-import java.util.stream.Collectors;
 
 /**
- * Represents a Beuchi transition system read from a file
+ * Represents a Beuchi transition system read from a file.
+ *
+ * Successors are stored per (letter, state) row, either as a dense bit matrix of longs or, for sparse
+ * automata, in compressed sparse row form. The layout is picked from the size of each in memory.
+ * Letters run from 1 to the alphabet size; letters outside that range have no transitions.
  */
 public class TransitionSystem {
 	/**
@@ -25,32 +27,294 @@ public class TransitionSystem {
 		}
 	}
 
-	Map<Integer, Map<Integer, BitSet>> innerMap;
+	/**
+	 * Receives the transitions of the system
+	 */
+	public interface Visitor {
+		/**
+		 * @param from The source state
+		 * @param to The target state
+		 * @param under The letter
+		 */
+		void visit(int from, int to, int under);
+	}
+
+	/** The number of states */
+	private final int nStates;
+	/** The alphabet size */
+	private final int alphsize;
+	/** The number of distinct transitions */
+	private final int size;
+
+	/** The number of longs per row of the dense matrix */
+	private final int words;
+	/** Dense successor rows, row (letter-1)*nStates+state starting at word row*words. Null if sparse. */
+	private final long[] matrix;
 
-	public TransitionSystem(List<Transition> transitions) {
-		transitions.sort((a, b) -> a.from - b.from);
+	/** The targets of row r are targets[offsets[r]] to targets[offsets[r+1]-1], ascending. Null if dense. */
+	private final int[] offsets;
+	private final int[] targets;
 
-		//Stream magic. Makes a state->(letter->bitset) map somehow.
-		Collector<Transition,?,BitSet> ip =
-				Collectors.<Transition,BitSet>reducing(new BitSet(),
-						trans->{ BitSet res = new BitSet(); res.set(trans.to); return res;},
-						(bs1,bs2)->{bs2.or(bs1); return bs2; });
+	/** A hash of the successors of every row, used to compare letters quickly */
+	private final long[] rowHashes;
 
-		Collector<Transition, ?, Map<Integer, BitSet>> innerColl =
-				Collectors.groupingBy(transi->transi.from, ip);
+	/** A reusable row of words per thread, so that dense images allocate nothing. Null if sparse. */
+	private final ThreadLocal<long[]> scratch;
+
+	/**
+	 * Build a transition system
+	 * @param nStates The number of states
+	 * @param alphsize The alphabet size
+	 * @param transitions The transitions
+	 */
+	public TransitionSystem(int nStates, int alphsize, List<Transition> transitions) {
+		this(nStates, alphsize, keys(nStates, alphsize, transitions));
+	}
 
-		innerMap = transitions.stream()
-				.collect(Collectors.groupingBy(trans -> trans.under, innerColl));
+	/**
+	 * Build a transition system from parallel arrays of transitions
+	 * @param nStates The number of states
+	 * @param alphsize The alphabet size
+	 * @param from The source states
+	 * @param to The target states
+	 * @param under The letters
+	 * @param count The number of transitions in the arrays
+	 */
+	public TransitionSystem(int nStates, int alphsize, int[] from, int[] to, int[] under, int count) {
+		this(nStates, alphsize, keys(nStates, alphsize, from, to, under, count));
+	}
+
+	/**
+	 * Build a transition system from sortable transition keys
+	 * @param nStates The number of states
+	 * @param alphsize The alphabet size
+	 * @param keys The transitions, each as row << 32 | target. Sorted in place.
+	 */
+	private TransitionSystem(int nStates, int alphsize, long[] keys) {
+		this.nStates = nStates;
+		this.alphsize = alphsize;
+		this.words = (nStates + 63) >>> 6;
+
+		//Sort by row then target, and drop duplicates
+		Arrays.sort(keys);
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (n == 0 || keys[n - 1] != keys[i])
+				keys[n++] = keys[i];
+		}
+		this.size = n;
+
+		int rows = alphsize * nStates;
+		long denseBytes = (long) rows * words * 8;
+		long sparseBytes = (long) (rows + 1) * 4 + (long) n * 4;
+
+		if (denseBytes <= 2 * sparseBytes) {
+			matrix = new long[rows * words];
+			for (int i = 0; i < n; i++) {
+				int row = (int) (keys[i] >>> 32), to = (int) keys[i];
+				matrix[row * words + (to >>> 6)] |= 1L << to;
+			}
+			offsets = null;
+			targets = null;
+			scratch = ThreadLocal.withInitial(() -> new long[words]);
+		} else {
+			matrix = null;
+			scratch = null;
+			offsets = new int[rows + 1];
+			targets = new int[n];
+			for (int i = 0; i < n; i++) {
+				offsets[(int) (keys[i] >>> 32) + 1]++;
+				targets[i] = (int) keys[i];
+			}
+			for (int r = 0; r < rows; r++)
+				offsets[r + 1] += offsets[r];
+		}
+
+		rowHashes = new long[rows];
+		for (int i = 0; i < n; i++) {
+			int row = (int) (keys[i] >>> 32);
+			rowHashes[row] = (rowHashes[row] + (int) keys[i] + 1) * 0x9E3779B97F4A7C15L;
+		}
+	}
+
+	/**
+	 * Encode transitions as row << 32 | target
+	 */
+	private static long[] keys(int nStates, int alphsize, List<Transition> transitions) {
+		long[] keys = new long[transitions.size()];
+		int i = 0;
+		for (Transition t : transitions)
+			keys[i++] = key(nStates, alphsize, t.from, t.to, t.under);
+		return keys;
+	}
+
+	private static long[] keys(int nStates, int alphsize, int[] from, int[] to, int[] under, int count) {
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++)
+			keys[i] = key(nStates, alphsize, from[i], to[i], under[i]);
+		return keys;
+	}
+
+	/**
+	 * Check a transition and encode it as row << 32 | target
+	 */
+	private static long key(int nStates, int alphsize, int from, int to, int under) {
+		if (from < 0 || from >= nStates || to < 0 || to >= nStates)
+			throw new IllegalArgumentException("Transition between states " + (from + 1) + " and " + (to + 1)
+					+ " outside of the " + nStates + " states of the automata");
+		if (under < 1 || under > alphsize)
+			throw new IllegalArgumentException("Transition under letter " + under
+					+ " outside of the alphabet of size " + alphsize);
+		return (long) ((under - 1) * nStates + from) << 32 | to;
+	}
 
+	/**
+	 * Compute the image of a set of states under a letter
+	 * @param character The character being transitioned under
+	 * @param label The states to transition from
+	 * @param out The set the successors are added to
+	 */
+	public void image(int character, BitSet label, BitSet out) {
+		if (character < 1 || character > alphsize) return;
+		int base = (character - 1) * nStates;
 
+		if (matrix != null) {
+			//One pass over the label, ORing each state's row, which is contiguous in the matrix
+			long[] acc = scratch.get();
+			Arrays.fill(acc, 0);
+			for (int i = label.nextSetBit(0); i >= 0 && i < nStates; i = label.nextSetBit(i + 1)) {
+				int r = (base + i) * words;
+				for (int w = 0; w < words; w++)
+					acc[w] |= matrix[r + w];
+			}
+			for (int w = 0; w < words; w++) {
+				for (long bits = acc[w]; bits != 0; bits &= bits - 1)
+					out.set((w << 6) + Long.numberOfTrailingZeros(bits));
+			}
+		} else {
+			for (int i = label.nextSetBit(0); i >= 0 && i < nStates; i = label.nextSetBit(i + 1)) {
+				for (int j = offsets[base + i], end = offsets[base + i + 1]; j < end; j++)
+					out.set(targets[j]);
+			}
+		}
 	}
 
 	/**
-	 * Get the transition map under character
+	 * OR the successors of one state into a word array
 	 * @param character The character being transitioned under
-	 * @return The map with the transitions state->new states.
+	 * @param state The state to transition from
+	 * @param dst The words receiving the successors, at least words() long
+	 * @param offset The index of the first word in dst
+	 */
+	public void row(int character, int state, long[] dst, int offset) {
+		if (character < 1 || character > alphsize || state < 0 || state >= nStates) return;
+		int r = (character - 1) * nStates + state;
+		if (matrix != null) {
+			for (int w = 0; w < words; w++)
+				dst[offset + w] |= matrix[r * words + w];
+		} else {
+			for (int j = offsets[r]; j < offsets[r + 1]; j++)
+				dst[offset + (targets[j] >>> 6)] |= 1L << targets[j];
+		}
+	}
+
+	/**
+	 * Partition the alphabet into letters that act the same on a set of states
+	 * @param states The states
+	 * @return rep, where rep[i] is the index of the first letter that has the same successors as letter i + 1
+	 * on every state in states. A letter that is its own representative has rep[i] == i.
+	 */
+	public int[] letterClasses(BitSet states) {
+		int[] rep = new int[alphsize];
+		//The first letter with each signature hash, in an open addressed table of twice the alphabet's size
+		//where first[slot] is the letter + 1, 0 if the slot is free. Letters that collide with another
+		//signature are just treated as their own class.
+		int mask = Integer.highestOneBit(Math.max(1, 2 * alphsize - 1)) * 2 - 1;
+		long[] hashes = new long[mask + 1];
+		int[] first = new int[mask + 1];
+		for (int a = 0; a < alphsize; a++) {
+			long hash = 0;
+			for (int i = states.nextSetBit(0); i >= 0 && i < nStates; i = states.nextSetBit(i + 1))
+				hash = (hash ^ rowHashes[a * nStates + i]) * 0x9E3779B97F4A7C15L + i;
+
+			int slot = (int) (hash ^ hash >>> 32) & mask;
+			while (first[slot] != 0 && hashes[slot] != hash)
+				slot = (slot + 1) & mask;
+			if (first[slot] == 0) {
+				hashes[slot] = hash;
+				first[slot] = a + 1;
+				rep[a] = a;
+			} else {
+				int b = first[slot] - 1;
+				rep[a] = sameRows(a, b, states) ? b : a;
+			}
+		}
+		return rep;
+	}
+
+	/**
+	 * Check if two letters have the same successors on a set of states
+	 * @param a The index of the first letter
+	 * @param b The index of the second letter
+	 * @param states The states
+	 * @return True iff they do
+	 */
+	private boolean sameRows(int a, int b, BitSet states) {
+		for (int i = states.nextSetBit(0); i >= 0 && i < nStates; i = states.nextSetBit(i + 1)) {
+			int ra = a * nStates + i, rb = b * nStates + i;
+			if (matrix != null) {
+				for (int w = 0; w < words; w++) {
+					if (matrix[ra * words + w] != matrix[rb * words + w]) return false;
+				}
+			} else {
+				int len = offsets[ra + 1] - offsets[ra];
+				if (len != offsets[rb + 1] - offsets[rb]) return false;
+				for (int j = 0; j < len; j++) {
+					if (targets[offsets[ra] + j] != targets[offsets[rb] + j]) return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Visit every distinct transition, ordered by letter, then source, then target
+	 * @param visitor The visitor
+	 */
+	public void forEach(Visitor visitor) {
+		int rows = alphsize * nStates;
+		for (int r = 0; r < rows; r++) {
+			int from = r % nStates, under = r / nStates + 1;
+			if (matrix != null) {
+				for (int w = 0; w < words; w++) {
+					for (long bits = matrix[r * words + w]; bits != 0; bits &= bits - 1)
+						visitor.visit(from, (w << 6) + Long.numberOfTrailingZeros(bits), under);
+				}
+			} else {
+				for (int j = offsets[r]; j < offsets[r + 1]; j++)
+					visitor.visit(from, targets[j], under);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of longs needed to hold a set of states
+	 */
+	public int words() {
+		return words;
+	}
+
+	/**
+	 * @return True iff successors are stored as a dense bit matrix
+	 */
+	public boolean isDense() {
+		return matrix != null;
+	}
+
+	/**
+	 * @return The number of distinct transitions
 	 */
-	public Map<Integer, BitSet> under(int character) {
-		return innerMap.get(character);
+	public int size() {
+		return size;
 	}
 }
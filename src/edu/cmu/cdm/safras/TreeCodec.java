@@ -0,0 +1,122 @@
+package edu.cmu.cdm.safras;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Canonical binary encoding of Safra trees.
+ *
+ * Nodes are written in preorder. Each node is its name, a header holding the number of children and
+ * the mark, and its label as a cardinality followed by the gaps between set bits. All numbers are
+ * unsigned LEB128 varints. The empty tree is the single byte 0, which no node can start with since
+ * names are positive. The set of used names is not stored: it is exactly the set of names in the tree.
+ */
+public class TreeCodec {
+	/** The encoding buffer */
+	private byte[] buf = new byte[64];
+	/** The write position in buf */
+	private int pos;
+
+	/**
+	 * Encode a tree. Not thread safe, use one codec per thread.
+	 * @param tree The tree to encode
+	 * @return The canonical encoding
+	 */
+	public byte[] encode(SafraTree tree) {
+		pos = 0;
+		if (tree.getNode().isPresent())
+			writeNode(tree.getNode().get());
+		else
+			writeVarint(0);
+		return Arrays.copyOf(buf, pos);
+	}
+
+	private void writeNode(SafraNode node) {
+		writeVarint(node.getName());
+		writeVarint(node.getSubnodes().size() << 1 | (node.isMark() ? 1 : 0));
+
+		BitSet label = node.getLabel();
+		writeVarint(label.cardinality());
+		int prev = -1;
+		for (int i = label.nextSetBit(0); i >= 0; i = label.nextSetBit(i + 1)) {
+			writeVarint(i - prev - 1);
+			prev = i;
+		}
+
+		List<SafraNode> subnodes = node.getSubnodes();
+		for (int i = 0; i < subnodes.size(); i++)
+			writeNode(subnodes.get(i));
+	}
+
+	private void writeVarint(int value) {
+		if (pos + 5 > buf.length)
+			buf = Arrays.copyOf(buf, buf.length * 2);
+		while ((value & ~0x7F) != 0) {
+			buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte) value;
+	}
+
+	/**
+	 * Decode a tree
+	 * @param bytes The encoding
+	 * @return The tree
+	 */
+	public static SafraTree decode(byte[] bytes) {
+		return decode(ByteBuffer.wrap(bytes), 0);
+	}
+
+	/**
+	 * Decode a tree stored in a buffer
+	 * @param src The buffer. Only absolute reads are used, so its position is left alone.
+	 * @param offset The offset of the encoding in src
+	 * @return The tree
+	 */
+	public static SafraTree decode(ByteBuffer src, int offset) {
+		int[] cursor = {offset};
+		BitSet used = new BitSet();
+		if (src.get(offset) == 0)
+			return new SafraTree(Optional.empty(), used);
+		return new SafraTree(Optional.of(readNode(src, cursor, used)), used);
+	}
+
+	private static SafraNode readNode(ByteBuffer src, int[] cursor, BitSet used) {
+		int name = readVarint(src, cursor);
+		int header = readVarint(src, cursor);
+		used.set(name - 1);
+
+		BitSet label = new BitSet();
+		int card = readVarint(src, cursor);
+		for (int i = 0, bit = -1; i < card; i++) {
+			bit += readVarint(src, cursor) + 1;
+			label.set(bit);
+		}
+
+		int nChildren = header >>> 1;
+		List<SafraNode> subnodes = new ArrayList<>(nChildren);
+		for (int i = 0; i < nChildren; i++)
+			subnodes.add(readNode(src, cursor, used));
+		return SafraNode.create(name, label, (header & 1) != 0, subnodes);
+	}
+
+	/**
+	 * Read an unsigned varint
+	 * @param src The buffer to read from
+	 * @param cursor The read position, advanced past the varint
+	 * @return The value
+	 */
+	static int readVarint(ByteBuffer src, int[] cursor) {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = src.get(cursor[0]++);
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+}
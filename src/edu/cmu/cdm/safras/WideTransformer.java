@@ -0,0 +1,193 @@
+package edu.cmu.cdm.safras;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Variant of ScratchTransformer working on Labels, producing identical trees.
+ *
+ * Labels, the seen set and the final states are fixed width Labels, so union over successors, the
+ * intersections with finals and seen, the emptiness tests and the cardinalities are bulk loops over words
+ * instead of BitSet calls. Images are computed from the image computer's chunk tables straight into the
+ * label. Meant for automata with hundreds of states or more, where labels span many words.
+ */
+public class WideTransformer implements SafraTransition {
+
+	/**
+	 * The scratch buffers of one thread
+	 */
+	private static final class Scratch {
+		/** The automata the buffers are for */
+		final Automata automata;
+		final Label finals, seen;
+		/** The new label and the label of the new child of the node at each depth */
+		Label[] labels, subLabels;
+		/** The children built so far, for every node on the path being rebuilt */
+		SafraNode[] children;
+		int top = 0;
+		final BitSet initNames;
+
+		Scratch(Automata am) {
+			this.automata = am;
+			this.finals = Label.of(am.nStates, am.finals);
+			this.seen = new Label(am.nStates);
+			int depth = 2 * am.nStates + 2;
+			labels = new Label[depth];
+			subLabels = new Label[depth];
+			for (int i = 0; i < depth; i++) {
+				labels[i] = new Label(am.nStates);
+				subLabels[i] = new Label(am.nStates);
+			}
+			children = new SafraNode[depth];
+			initNames = new BitSet(2 * am.nStates);
+		}
+
+		void push(SafraNode child) {
+			if (top == children.length)
+				children = Arrays.copyOf(children, top * 2);
+			children[top++] = child;
+		}
+	}
+
+	/** The buffers of each thread */
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<>();
+
+	private Scratch scratch(Automata am) {
+		Scratch s = scratch.get();
+		if (s == null || s.automata != am) {
+			s = new Scratch(am);
+			scratch.set(s);
+		}
+		return s;
+	}
+
+	/**
+	 * Releases the names of all nodes in the list and all of their children
+	 */
+	private static void deleteNodes(List<SafraNode> nodes, BitSet names) {
+		for (int i = 0; i < nodes.size(); i++) {
+			SafraNode sn = nodes.get(i);
+			names.clear(sn.getName()-1);
+			deleteNodes(sn.getSubnodes(), names);
+		}
+	}
+
+	/**
+	 * The recursive bit of a safra transition, as in ScratchTransformer.
+	 *
+	 * @param s The scratch buffers
+	 * @param depth The depth of elem, selecting its label buffers
+	 * @param character The letter to transition under
+	 * @param elem The node to transform
+	 * @param realNames The actual set of names used in the tree, with deletes
+	 * @return The new node, or null if it was killed
+	 */
+	private static SafraNode transform(Scratch s, int depth, int character, SafraNode elem, BitSet realNames) {
+		Label seen = s.seen;
+
+		//Update
+		Label newLabel = s.labels[depth];
+		newLabel.clear();
+		s.automata.images.image(character, elem.getLabel(), newLabel);
+
+		//Create. The new child's name is 0 if there is none.
+		int newName = 0;
+		Label subLabel = s.subLabels[depth];
+		if (newLabel.intersects(s.finals)) {
+			subLabel.copy(newLabel);
+			subLabel.and(s.finals);
+
+			int name = s.initNames.nextClearBit(0);
+			newName = name + 1;
+			s.initNames.set(name);
+			realNames.set(name);
+		}
+
+		//Horizontal merge
+		newLabel.and(seen);
+
+		//kill empty
+		if (newLabel.isEmpty()) {
+			realNames.clear(elem.getName()-1);
+			deleteNodes(elem.getSubnodes(), realNames);
+			if (newName != 0)
+				realNames.clear(newName-1);
+			return null;
+		}
+
+		int pre = seen.cardinality();
+
+		//Children are pushed above base
+		int base = s.top;
+		List<SafraNode> nodes = elem.getSubnodes();
+		for (int i = 0; i < nodes.size(); i++) {
+			SafraNode child = transform(s, depth + 1, character, nodes.get(i), realNames);
+			if (child != null)
+				s.push(child);
+		}
+
+		//The new child is marked, has no children, and keeps the part of its label not seen yet
+		if (newName != 0) {
+			subLabel.and(seen);
+			if (subLabel.isEmpty()) {
+				realNames.clear(newName-1);
+			} else {
+				seen.andNot(subLabel);
+				s.push(SafraNode.create(newName, subLabel.toBitSet(), true, s.children, 0, 0));
+			}
+		}
+
+		int post = seen.cardinality();
+
+		//add current label to seen
+		seen.andNot(newLabel);
+
+		SafraNode result;
+		if (pre - post == newLabel.cardinality()) {
+			//Children cover the label, so they go away
+			for (int i = base; i < s.top; i++) {
+				realNames.clear(s.children[i].getName()-1);
+				deleteNodes(s.children[i].getSubnodes(), realNames);
+			}
+			result = SafraNode.create(elem.getName(), newLabel.toBitSet(), true, s.children, 0, 0);
+		} else {
+			result = SafraNode.create(elem.getName(), newLabel.toBitSet(), false, s.children, base, s.top);
+		}
+
+		//Pop the children
+		Arrays.fill(s.children, base, s.top, null);
+		s.top = base;
+		return result;
+	}
+
+	/**
+	 * Safra transition function
+	 * @param am The Automata to build a tree for
+	 * @param source The tree to build off of
+	 * @param character The letter to transition under
+	 * @return The new Safra tree
+	 */
+	@Override
+	public SafraTree transition(Automata am, SafraTree source, int character) {
+		Scratch s = scratch(am);
+		s.top = 0;
+
+		//The set of names as if the delete hasn't happened yet, see MonopassTransformer
+		s.initNames.clear();
+		s.initNames.or(source.getUsedNames());
+
+		//The real set of new names
+		BitSet newNames = (BitSet) source.getUsedNames().clone();
+
+		//seen is inverted
+		s.seen.setFirst(am.nStates);
+
+		SafraNode result = null;
+		if (source.getNode().isPresent())
+			result = transform(s, 0, character, source.getNode().get(), newNames);
+
+		return new SafraTree(Optional.ofNullable(result), newNames);
+	}
+}
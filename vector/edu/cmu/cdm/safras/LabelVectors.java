@@ -0,0 +1,90 @@
+package edu.cmu.cdm.safras;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The bulk operations of Label with the incubating Vector API, on the widest long vectors of the machine.
+ *
+ * It lives in the vector source root, which is only compiled with --add-modules jdk.incubator.vector, and
+ * Label only loads it when the JVM runs with that flag too; Label uses LabelLoops otherwise. Each operation
+ * covers whole vectors and finishes the words past the last one with scalar code. There is no vector
+ * cardinality: the lane-wise bit count only arrived after JDK 17, and Long.bitCount is already a popcnt.
+ */
+final class LabelVectors implements LabelOps {
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+	LabelVectors() {
+	}
+
+	@Override
+	public void or(long[] a, long[] b) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(a.length); i < bound; i += SPECIES.length())
+			LongVector.fromArray(SPECIES, a, i).or(LongVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+		for (; i < a.length; i++)
+			a[i] |= b[i];
+	}
+
+	@Override
+	public void or(long[] a, long[] src, int offset) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(a.length); i < bound; i += SPECIES.length())
+			LongVector.fromArray(SPECIES, a, i).or(LongVector.fromArray(SPECIES, src, offset + i)).intoArray(a, i);
+		for (; i < a.length; i++)
+			a[i] |= src[offset + i];
+	}
+
+	@Override
+	public void and(long[] a, long[] b) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(a.length); i < bound; i += SPECIES.length())
+			LongVector.fromArray(SPECIES, a, i).and(LongVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+		for (; i < a.length; i++)
+			a[i] &= b[i];
+	}
+
+	@Override
+	public void andNot(long[] a, long[] b) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(a.length); i < bound; i += SPECIES.length()) {
+			LongVector.fromArray(SPECIES, a, i).lanewise(VectorOperators.AND_NOT, LongVector.fromArray(SPECIES, b, i))
+					.intoArray(a, i);
+		}
+		for (; i < a.length; i++)
+			a[i] &= ~b[i];
+	}
+
+	@Override
+	public boolean isEmpty(long[] a) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(a.length); i < bound; i += SPECIES.length()) {
+			if (LongVector.fromArray(SPECIES, a, i).compare(VectorOperators.NE, 0).anyTrue())
+				return false;
+		}
+		for (; i < a.length; i++) {
+			if (a[i] != 0) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean intersects(long[] a, long[] b) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(a.length); i < bound; i += SPECIES.length()) {
+			LongVector both = LongVector.fromArray(SPECIES, a, i).and(LongVector.fromArray(SPECIES, b, i));
+			if (both.compare(VectorOperators.NE, 0).anyTrue())
+				return true;
+		}
+		for (; i < a.length; i++) {
+			if ((a[i] & b[i]) != 0) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return SPECIES.length() + " x 64 bits";
+	}
+}